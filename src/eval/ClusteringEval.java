@@ -6,10 +6,16 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import utility.FuncUtils;
 
@@ -50,6 +56,36 @@ public class ClusteringEval
 		readDocTopicProsFile();
 	}
 
+	/**
+	 * Evaluate a document-to-topic distribution file against golden labels
+	 * that have already been read, which are shared, not copied
+	 */
+	public ClusteringEval(ClusteringEval goldenLabels,
+		String inPathDocTopicProsFile)
+		throws Exception
+	{
+		pathDocTopicProsFile = inPathDocTopicProsFile;
+		pathGoldenLabelsFile = goldenLabels.pathGoldenLabelsFile;
+
+		goldenClusers = goldenLabels.goldenClusers;
+		numDocs = goldenLabels.numDocs;
+		outputClusers = new HashMap<String, Set<Integer>>();
+
+		readDocTopicProsFile();
+	}
+
+	/**
+	 * Read golden labels only, to be shared by the evaluations of several
+	 * files
+	 */
+	private ClusteringEval(String inPathGoldenLabelsFile)
+		throws Exception
+	{
+		pathGoldenLabelsFile = inPathGoldenLabelsFile;
+		goldenClusers = new HashMap<String, Set<Integer>>();
+		readGoldenLabelsFile();
+	}
+
 	public void readGoldenLabelsFile()
 		throws Exception
 	{
@@ -129,6 +165,13 @@ public class ClusteringEval
 	}
 
 	public double computePurity()
+	{
+		double value = purity();
+		System.out.println("\tPurity accuracy: " + value);
+		return value;
+	}
+
+	private double purity()
 	{
 		int count = 0;
 		for (String label : outputClusers.keySet()) {
@@ -143,12 +186,17 @@ public class ClusteringEval
 			}
 			count += correctAssignedDocNum;
 		}
-		double value = count * 1.0 / numDocs;
-		System.out.println("\tPurity accuracy: " + value);
-		return value;
+		return count * 1.0 / numDocs;
 	}
 
 	public double computeNMIscore()
+	{
+		double value = nmi();
+		System.out.println("\tNMI score: " + value);
+		return value;
+	}
+
+	private double nmi()
 	{
 		double MIscore = 0.0;
 		for (String label : outputClusers.keySet()) {
@@ -179,39 +227,94 @@ public class ClusteringEval
 				* Math.log(1.0 * docs.size() / numDocs);
 		}
 
-		double value = 2 * MIscore / entropy;
-		System.out.println("\tNMI score: " + value);
-		return value;
+		return 2 * MIscore / entropy;
 	}
 
 	public static void evaluate(String pathGoldenLabelsFile,
 		String pathToFolderOfDocTopicProsFiles, String suffix)
 		throws Exception
 	{
-		BufferedWriter writer = new BufferedWriter(new FileWriter(
-			pathToFolderOfDocTopicProsFiles + "/" + suffix + ".PurityNMI"));
-		writer.write("Golden-labels in: " + pathGoldenLabelsFile + "\n\n");
-		File[] files = new File(pathToFolderOfDocTopicProsFiles).listFiles();
+		evaluate(pathGoldenLabelsFile, pathToFolderOfDocTopicProsFiles,
+			suffix, 0);
+	}
 
-		List<Double> purity = new ArrayList<Double>(), nmi = new ArrayList<Double>();
-		for (File file : files) {
-			if (!file.getName().endsWith(suffix))
-				continue;
-			writer.write("Results for: " + file.getAbsolutePath() + "\n");
-			ClusteringEval dce = new ClusteringEval(pathGoldenLabelsFile,
-				file.getAbsolutePath());
-			double value = dce.computePurity();
-			writer.write("\tPurity: " + value + "\n");
-			purity.add(value);
-			value = dce.computeNMIscore();
-			writer.write("\tNMI: " + value + "\n");
-			nmi.add(value);
+	/**
+	 * Evaluate every file ending with suffix in a folder, numThreads files at
+	 * a time (one per core if numThreads <= 0). The golden labels are read
+	 * once, and the results are written in order of file name.
+	 */
+	public static void evaluate(String pathGoldenLabelsFile,
+		String pathToFolderOfDocTopicProsFiles, String suffix, int numThreads)
+		throws Exception
+	{
+		List<File> files = new ArrayList<File>();
+		File[] folderFiles = new File(pathToFolderOfDocTopicProsFiles)
+			.listFiles();
+		if (folderFiles != null) {
+			Arrays.sort(folderFiles);
+			for (File file : folderFiles)
+				if (file.getName().endsWith(suffix))
+					files.add(file);
 		}
-		if (purity.size() == 0 || nmi.size() == 0) {
+		if (files.size() == 0) {
 			System.out.println("Error: There is no file ending with " + suffix);
 			throw new Exception();
 		}
 
+		final ClusteringEval goldenLabels = new ClusteringEval(
+			pathGoldenLabelsFile);
+
+		List<Callable<double[]>> evaluations = new ArrayList<Callable<double[]>>();
+		for (final File file : files)
+			evaluations.add(() -> {
+				ClusteringEval dce = new ClusteringEval(goldenLabels,
+					file.getAbsolutePath());
+				return new double[] { dce.purity(), dce.nmi() };
+			});
+
+		if (numThreads <= 0)
+			numThreads = Runtime.getRuntime().availableProcessors();
+		ExecutorService executor = Executors.newFixedThreadPool(
+			Math.min(numThreads, files.size()), runnable -> {
+				Thread thread = new Thread(runnable, "clustering-eval");
+				thread.setDaemon(true);
+				return thread;
+			});
+		List<Future<double[]>> results;
+		try {
+			results = executor.invokeAll(evaluations);
+		}
+		finally {
+			executor.shutdown();
+		}
+
+		BufferedWriter writer = new BufferedWriter(new FileWriter(
+			pathToFolderOfDocTopicProsFiles + "/" + suffix + ".PurityNMI"));
+		writer.write("Golden-labels in: " + pathGoldenLabelsFile + "\n\n");
+		List<Double> purity = new ArrayList<Double>(), nmi = new ArrayList<Double>();
+		for (int i = 0; i < files.size(); i++) {
+			double[] values;
+			try {
+				values = results.get(i).get();
+			}
+			catch (ExecutionException e) {
+				writer.close();
+				if (e.getCause() instanceof Exception)
+					throw (Exception) e.getCause();
+				throw e;
+			}
+			System.out.println("Results for: "
+				+ files.get(i).getAbsolutePath());
+			writer.write("Results for: " + files.get(i).getAbsolutePath()
+				+ "\n");
+			System.out.println("\tPurity accuracy: " + values[0]);
+			writer.write("\tPurity: " + values[0] + "\n");
+			purity.add(values[0]);
+			System.out.println("\tNMI score: " + values[1]);
+			writer.write("\tNMI: " + values[1] + "\n");
+			nmi.add(values[1]);
+		}
+
 		double[] purityValues = new double[purity.size()];
 		double[] nmiValues = new double[nmi.size()];
 
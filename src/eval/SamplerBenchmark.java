@@ -0,0 +1,93 @@
+package eval;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+
+import models.GibbsSamplingLDA;
+
+/**
+ * jLDADMM: A Java package for the LDA and DMM topic models
+ * 
+ * Measures the throughput of the LDA samplers on a corpus, for comparing the
+ * -sampler, -twstorage, -kernel, -threads and -parallel options with each
+ * other, together with the log-likelihood per word of the final model, which
+ * shows how far approximate samplers drift from the exact ones. Nothing is
+ * written to disk.
+ * 
+ * Usage: java -cp jLDADMM.jar eval.SamplerBenchmark corpus numTopics
+ * numIterations sampler[:storage[:kernel[:threads[:parallel]]]]...
+ * 
+ * where numTopics may be a comma-separated list, e.g. 100,500,1000, and each
+ * sampler may be followed by a topic-word storage, a kernel, a number of
+ * threads and a parallel sampler, e.g. dense:wordmajor:vector32 or
+ * dense:wordmajor:scalar:4:hogwild.
+ */
+
+public class SamplerBenchmark
+{
+	/**
+	 * Train LDA with the given sampler, topic-word storage, kernel and threads
+	 * and report the number of words sampled per second over the second half
+	 * of the iterations, after the counts have started to become sparse.
+	 * 
+	 * @return Words per second, and log-likelihood per word of the final model
+	 */
+	public static double[] benchmark(String pathToCorpus, int numTopics,
+		int numIterations, String sampler, String topicWordStorage,
+		String kernel, int numThreads, String parallel)
+		throws Exception
+	{
+		GibbsSamplingLDA lda = new GibbsSamplingLDA();
+		lda.setLogStream(null);
+		lda.topicWordStorage = topicWordStorage;
+		lda.initialize(new BufferedReader(new InputStreamReader(
+			new FileInputStream(pathToCorpus), "UTF-8")), numTopics, 0.1, 0.01,
+			numIterations, 20, "benchmark", null, 0, null, null, null, null,
+			null, null);
+		lda.sampler = sampler;
+		lda.kernel = kernel;
+		lda.numThreads = numThreads;
+		lda.parallel = parallel;
+
+		long time = 0;
+		for (int iter = 1; iter <= numIterations; iter++) {
+			long startTime = System.nanoTime();
+			lda.sampleInSingleIteration();
+			if (iter > numIterations / 2)
+				time += System.nanoTime() - startTime;
+		}
+		lda.closeSampler();
+		double wordsPerSecond = (double) lda.numWordsInCorpus
+			* (numIterations - numIterations / 2) / (time / 1e9);
+		return new double[] { wordsPerSecond, lda.computeLogLikelihood() };
+	}
+
+	public static void main(String[] args)
+		throws Exception
+	{
+		if (args.length < 4) {
+			System.out
+				.println("java -cp jLDADMM.jar eval.SamplerBenchmark <corpus> <ntopics[,ntopics...]> <niters> <sampler[:storage[:kernel[:threads[:parallel]]]]>...");
+			return;
+		}
+		int numIterations = Integer.parseInt(args[2]);
+		for (String topics : args[1].split(",")) {
+			int numTopics = Integer.parseInt(topics);
+			for (int i = 3; i < args.length; i++) {
+				String[] option = args[i].split(":");
+				String storage = option.length > 1 ? option[1] : "dense";
+				String kernel = option.length > 2 ? option[2] : "scalar";
+				int threads = option.length > 3 ? Integer.parseInt(option[3])
+					: 1;
+				String parallel = option.length > 4 ? option[4] : "adlda";
+				double[] result = benchmark(args[0], numTopics, numIterations,
+					option[0], storage, kernel, threads, parallel);
+				System.out.println(option[0] + "\t" + storage + "\t" + kernel
+					+ "\t" + threads + (threads > 1 ? ":" + parallel : "")
+					+ "\tK=" + numTopics + "\t" + Math.round(result[0])
+					+ " words/s\tlog-likelihood " + result[1]);
+			}
+		}
+	}
+}
@@ -1,12 +1,18 @@
+import java.io.File;
+
 import models.GibbsSamplingDMM;
 import models.GibbsSamplingDMM_Inf;
 import models.GibbsSamplingLDA;
 import models.GibbsSamplingLDA_Inf;
+import models.JLDADMMModel;
+import models.MultiChainRunner;
 
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
 
 import utility.CmdArgs;
+import utility.Corpus;
+import utility.RandomStream;
 import eval.ClusteringEval;
 
 /**
@@ -29,30 +35,53 @@ public class jLDADMM
 
 			parser.parseArgument(args);
 
-			if (cmdArgs.model.equals("LDA")) {
-				GibbsSamplingLDA lda = new GibbsSamplingLDA(cmdArgs.corpus,
-					cmdArgs.ntopics, cmdArgs.alpha, cmdArgs.beta,
-					cmdArgs.niters, cmdArgs.twords, cmdArgs.expModelName,
-					cmdArgs.initTopicAssgns, cmdArgs.savestep);
+			if (cmdArgs.chains > 1
+				&& (cmdArgs.model.equals("LDA") || cmdArgs.model.equals("DMM"))) {
+				runChains(cmdArgs);
+			}
+			else if (cmdArgs.model.equals("LDA")) {
+				GibbsSamplingLDA lda = new GibbsSamplingLDA();
+				lda.topicWordStorage = cmdArgs.twstorage;
+				lda.seed = cmdArgs.seed;
+				lda.randomGenerator = cmdArgs.rng;
+				lda.initialize(cmdArgs.corpus, cmdArgs.ntopics, cmdArgs.alpha,
+					cmdArgs.beta, cmdArgs.niters, cmdArgs.twords,
+					cmdArgs.expModelName, cmdArgs.initTopicAssgns,
+					cmdArgs.savestep);
+				lda.sampler = cmdArgs.sampler;
+				lda.kernel = cmdArgs.kernel;
+				lda.numThreads = cmdArgs.threads;
+				lda.parallel = cmdArgs.parallel;
 				lda.inference();
 			}
 			else if (cmdArgs.model.equals("DMM")) {
-				GibbsSamplingDMM dmm = new GibbsSamplingDMM(cmdArgs.corpus,
-					cmdArgs.ntopics, cmdArgs.alpha, cmdArgs.beta,
-					cmdArgs.niters, cmdArgs.twords, cmdArgs.expModelName,
-					cmdArgs.initTopicAssgns, cmdArgs.savestep);
+				GibbsSamplingDMM dmm = new GibbsSamplingDMM();
+				dmm.sampler = cmdArgs.sampler;
+				dmm.numThreads = cmdArgs.threads;
+				dmm.numBatches = cmdArgs.batches;
+				dmm.seed = cmdArgs.seed;
+				dmm.randomGenerator = cmdArgs.rng;
+				dmm.initialize(cmdArgs.corpus, cmdArgs.ntopics, cmdArgs.alpha,
+					cmdArgs.beta, cmdArgs.niters, cmdArgs.twords,
+					cmdArgs.expModelName, cmdArgs.initTopicAssgns,
+					cmdArgs.savestep);
 				dmm.inference();
 			}
 			else if (cmdArgs.model.equals("LDAinf")) {
 				GibbsSamplingLDA_Inf lda = new GibbsSamplingLDA_Inf(
 					cmdArgs.paras, cmdArgs.corpus, cmdArgs.niters,
-					cmdArgs.twords, cmdArgs.expModelName, cmdArgs.savestep);
+					cmdArgs.twords, cmdArgs.expModelName, cmdArgs.savestep,
+					cmdArgs.seed, cmdArgs.rng);
+				lda.kernel = cmdArgs.kernel;
+				lda.numThreads = cmdArgs.threads;
 				lda.inference();
 			}
 			else if (cmdArgs.model.equals("DMMinf")) {
 				GibbsSamplingDMM_Inf dmm = new GibbsSamplingDMM_Inf(
 					cmdArgs.paras, cmdArgs.corpus, cmdArgs.niters,
-					cmdArgs.twords, cmdArgs.expModelName, cmdArgs.savestep);
+					cmdArgs.twords, cmdArgs.expModelName, cmdArgs.savestep,
+					cmdArgs.seed, cmdArgs.rng);
+				dmm.numThreads = cmdArgs.threads;
 				dmm.inference();
 			}
 			else if (cmdArgs.model.equals("Eval")) {
@@ -88,6 +117,52 @@ public class jLDADMM
 		}
 	}
 
+	/**
+	 * Train cmdArgs.chains chains of LDA or DMM at once on one tokenized
+	 * corpus, writing the outputs of chain c with the name "<name>-chain<c>"
+	 */
+	public static void runChains(final CmdArgs cmdArgs)
+		throws Exception
+	{
+		System.out.println("Reading topic modeling corpus: " + cmdArgs.corpus);
+		Corpus corpus = Corpus.read(new File(cmdArgs.corpus), 0);
+		long masterSeed = cmdArgs.seed != 0 ? cmdArgs.seed : RandomStream
+			.newSeed();
+		System.out.println("Training " + cmdArgs.chains + " " + cmdArgs.model
+			+ " chains with master seed " + masterSeed);
+
+		MultiChainRunner.run(corpus, cmdArgs.chains, masterSeed,
+			(chain, seed, sharedCorpus) -> {
+				JLDADMMModel model;
+				if (cmdArgs.model.equals("LDA")) {
+					GibbsSamplingLDA lda = new GibbsSamplingLDA();
+					lda.topicWordStorage = cmdArgs.twstorage;
+					lda.sampler = cmdArgs.sampler;
+					lda.kernel = cmdArgs.kernel;
+					lda.numThreads = cmdArgs.threads;
+					lda.parallel = cmdArgs.parallel;
+					model = lda;
+				}
+				else {
+					GibbsSamplingDMM dmm = new GibbsSamplingDMM();
+					dmm.sampler = cmdArgs.sampler;
+					dmm.numThreads = cmdArgs.threads;
+					dmm.numBatches = cmdArgs.batches;
+					model = dmm;
+				}
+				model.seed = seed;
+				model.randomGenerator = cmdArgs.rng;
+				model.setCorpus(sharedCorpus);
+				// The chains' logs would be interleaved
+				model.setLogStream(null);
+				model.initialize(cmdArgs.corpus, cmdArgs.ntopics, cmdArgs.alpha,
+					cmdArgs.beta, cmdArgs.niters, cmdArgs.twords,
+					cmdArgs.expModelName + "-chain" + chain,
+					cmdArgs.initTopicAssgns, cmdArgs.savestep);
+				return model;
+			});
+	}
+
 	public static void help(CmdLineParser parser)
 	{
 		System.out
@@ -0,0 +1,296 @@
+package models;
+
+import java.util.Arrays;
+
+import utility.FuncUtils;
+import utility.TopicWordCounts;
+
+/**
+ * jLDADMM: A Java package for the LDA and DMM topic models
+ *
+ * Metropolis-Hastings sampler using alias tables, in the style of:
+ *
+ * Aaron Q. Li, Amr Ahmed, Sujith Ravi and Alexander J. Smola. 2014. Reducing
+ * the Sampling Complexity of Topic Models. In Proceedings of the 20th ACM
+ * SIGKDD International Conference on Knowledge Discovery and Data Mining,
+ * pages 891–900.
+ *
+ * Jinhui Yuan, Fei Gao, Qirong Ho, Wei Dai, Jinliang Wei, Xun Zheng, Eric P.
+ * Xing, Tie-Yan Liu and Wei-Ying Ma. 2015. LightLDA: Big Topic Models on
+ * Modest Computer Clusters. In Proceedings of the 24th International
+ * Conference on World Wide Web, pages 1351–1361.
+ *
+ * Every word alternates MH_STEPS pairs of proposals:
+ *
+ * - a document proposal, proportional to n_dt + alpha, drawn in constant time
+ * by picking the topic of a random word of the document;
+ *
+ * - a word proposal, proportional to (n_wt + beta) / (n_t + betaSum) with the
+ * counts as they were at the start of the iteration, drawn in constant time
+ * from alias tables: one over the topics of word w for the n_wt part, rebuilt
+ * lazily the first time w is met in an iteration, and one over all topics for
+ * the beta part, rebuilt at the start of every iteration. The current word's
+ * own assignment is taken out of the proposal by rejection, so that the
+ * proposal does not depend on the word's current topic.
+ *
+ * Each proposal is accepted or rejected against the exact conditional, using
+ * the (stale) proposal probabilities it was drawn with, so the work per word
+ * is constant apart from a binary search in the word's table. Samples are
+ * exact even though word proposals are only refreshed once per iteration, as
+ * in AliasLDA and LightLDA: the proposal stays fixed within the iteration,
+ * does not depend on the word's current topic once its own assignment is
+ * rejected, and is accepted with the same stale probabilities it was drawn
+ * from. The stale tables only make the proposal a worse match for the
+ * conditional, so the chain may need more iterations to mix.
+ */
+
+public class AliasLDASampler
+	extends LDASampler
+{
+	// Number of (document proposal, word proposal) pairs per word
+	public static final int MH_STEPS = 2;
+
+	// Positions in tokens of the occurrences of every word type: the
+	// occurrences of w are wordTokens[tokenOffsets[w]] ...
+	// wordTokens[tokenOffsets[w + 1] - 1]
+	private int[] wordTokens;
+	private int[] tokenOffsets;
+	// Start of every word's table in the table arrays, which have room for
+	// min(numTopics, frequency of w) topics
+	private int[] wordOffsets;
+
+	// Per-word tables of n_wt / (n_t + betaSum), by ascending topic
+	private int[] tableTopics;
+	private int[] tableCounts;
+	private double[] tableWeights;
+	private double[] tableProb;
+	private int[] tableAlias;
+	private int[] tableSize;
+	private double[] tableMass;
+	// Iteration each word's table was last built in
+	private int[] tableIteration;
+
+	// n_t + betaSum at the start of the iteration
+	private double[] denominators;
+	// Alias table of beta / (n_t + betaSum) over all topics
+	private double[] betaWeights;
+	private double[] betaProb;
+	private int[] betaAlias;
+	private double betaMass;
+
+	private int iteration = 0;
+	private int[] docCounts; // Counts of the current document, by topic
+	private int[] counts; // Scratch per-topic counts
+	private int[] work; // Scratch space for building alias tables
+
+	public AliasLDASampler(GibbsSamplingLDA model)
+	{
+		super(model);
+		int numTopics = model.numTopics;
+		int vocabularySize = model.vocabularySize;
+
+		// Index the occurrences of every word type
+		int[] frequency = new int[vocabularySize];
+		for (int i = 0; i < model.numWordsInCorpus; i++)
+			frequency[model.tokens[i]]++;
+		tokenOffsets = new int[vocabularySize + 1];
+		wordOffsets = new int[vocabularySize + 1];
+		for (int w = 0; w < vocabularySize; w++) {
+			tokenOffsets[w + 1] = tokenOffsets[w] + frequency[w];
+			wordOffsets[w + 1] = wordOffsets[w]
+				+ Math.min(numTopics, frequency[w]);
+		}
+		wordTokens = new int[model.numWordsInCorpus];
+		int[] next = Arrays.copyOf(tokenOffsets, vocabularySize);
+		for (int i = 0; i < model.numWordsInCorpus; i++)
+			wordTokens[next[model.tokens[i]]++] = i;
+
+		int tableCapacity = wordOffsets[vocabularySize];
+		tableTopics = new int[tableCapacity];
+		tableCounts = new int[tableCapacity];
+		tableWeights = new double[tableCapacity];
+		tableProb = new double[tableCapacity];
+		tableAlias = new int[tableCapacity];
+		tableSize = new int[vocabularySize];
+		tableMass = new double[vocabularySize];
+		tableIteration = new int[vocabularySize];
+
+		denominators = new double[numTopics];
+		betaWeights = new double[numTopics];
+		betaProb = new double[numTopics];
+		betaAlias = new int[numTopics];
+
+		docCounts = new int[numTopics];
+		counts = new int[numTopics];
+		work = new int[numTopics];
+	}
+
+	public void sampleInSingleIteration()
+	{
+		int numTopics = model.numTopics;
+		double alpha = model.alpha;
+		double beta = model.beta;
+		double betaSum = model.betaSum;
+		double alphaSum = model.alphaSum;
+		int[] tokens = model.tokens;
+		int[] topics = model.topics;
+		TopicWordCounts topicWordCount = model.topicWordCount;
+		int[] sumTopicWordCount = model.sumTopicWordCount;
+
+		iteration++;
+		betaMass = 0.0;
+		for (int tIndex = 0; tIndex < numTopics; tIndex++) {
+			denominators[tIndex] = sumTopicWordCount[tIndex] + betaSum;
+			betaWeights[tIndex] = beta / denominators[tIndex];
+			betaMass += betaWeights[tIndex];
+		}
+		FuncUtils.buildAliasTable(betaWeights, 0, numTopics, betaProb,
+			betaAlias, work);
+
+		for (int dIndex = 0; dIndex < model.numDocuments; dIndex++) {
+			int docStart = model.docOffsets[dIndex];
+			int docSize = model.docOffsets[dIndex + 1] - docStart;
+			model.docTopicCount.getRow(dIndex, docCounts);
+			double docProposalMass = docSize + alphaSum;
+
+			for (int wIndex = docStart; wIndex < docStart + docSize; wIndex++) {
+				// Get current word and its topic
+				int topic = topics[wIndex];
+				int word = tokens[wIndex];
+				if (tableIteration[word] != iteration)
+					buildWordTable(word);
+
+				// Decrease counts
+				docCounts[topic] -= 1;
+				topicWordCount.add(topic, word, -1);
+				sumTopicWordCount[topic] -= 1;
+
+				// This word counted towards its current topic when the word
+				// proposal was built, so draws of that topic are kept with
+				// probability (weight without the word) / (weight with it)
+				int originalTopic = topic;
+				int originalCount = tableCount(word, originalTopic);
+				double keepOriginal = ((originalCount - 1 + beta)
+					/ (denominators[originalTopic] - 1))
+					/ ((originalCount + beta) / denominators[originalTopic]);
+
+				for (int step = 0; step < MH_STEPS; step++) {
+					// Document proposal: the topic of a random word of the
+					// document (this word counting as the current topic), or
+					// a uniformly random topic
+					int proposal;
+					if (random.nextDouble() * docProposalMass < docSize) {
+						int position = docStart + random.nextInt(docSize);
+						proposal = position == wIndex ? topic : topics[position];
+					}
+					else {
+						proposal = random.nextInt(numTopics);
+					}
+					if (proposal != topic) {
+						double acceptance = (topicWordCount.get(proposal, word) + beta)
+							* (sumTopicWordCount[topic] + betaSum)
+							/ ((topicWordCount.get(topic, word) + beta)
+							* (sumTopicWordCount[proposal] + betaSum));
+						if (acceptance >= 1.0 || random.nextDouble() < acceptance)
+							topic = proposal;
+					}
+
+					// Word proposal
+					do {
+						if (random.nextDouble() * (tableMass[word] + betaMass) < tableMass[word]) {
+							proposal = tableTopics[wordOffsets[word]
+								+ FuncUtils.nextAlias(tableProb, tableAlias,
+									wordOffsets[word], tableSize[word], random)];
+						}
+						else {
+							proposal = FuncUtils.nextAlias(betaProb, betaAlias, 0,
+								numTopics, random);
+						}
+					}
+					while (proposal == originalTopic
+						&& random.nextDouble() >= keepOriginal);
+					if (proposal != topic) {
+						double acceptance = (docCounts[proposal] + alpha)
+							* (topicWordCount.get(proposal, word) + beta)
+							* (sumTopicWordCount[topic] + betaSum)
+							* wordProposal(word, topic, originalTopic)
+							/ ((docCounts[topic] + alpha)
+							* (topicWordCount.get(topic, word) + beta)
+							* (sumTopicWordCount[proposal] + betaSum)
+							* wordProposal(word, proposal, originalTopic));
+						if (acceptance >= 1.0 || random.nextDouble() < acceptance)
+							topic = proposal;
+					}
+				}
+
+				// Increase counts
+				docCounts[topic] += 1;
+				topicWordCount.add(topic, word, 1);
+				sumTopicWordCount[topic] += 1;
+
+				// Update topic assignments
+				topics[wIndex] = topic;
+			}
+			model.docTopicCount.setRow(dIndex, docCounts, topics, docStart,
+				docStart + docSize);
+		}
+	}
+
+	/**
+	 * Unnormalized probability of a topic under the word proposal of a word,
+	 * leaving out the word being sampled, whose topic was originalTopic
+	 */
+	private double wordProposal(int word, int topic, int originalTopic)
+	{
+		if (topic == originalTopic)
+			return (tableCount(word, topic) - 1 + model.beta)
+				/ (denominators[topic] - 1);
+		else
+			return (tableCount(word, topic) + model.beta) / denominators[topic];
+	}
+
+	/**
+	 * n_wt of a word and topic at the time the word's table was built
+	 */
+	private int tableCount(int word, int topic)
+	{
+		int start = wordOffsets[word];
+		int i = Arrays.binarySearch(tableTopics, start,
+			start + tableSize[word], topic);
+		return i >= 0 ? tableCounts[i] : 0;
+	}
+
+	/**
+	 * Build the alias table of the n_wt / (n_t + betaSum) part of the word
+	 * proposal of a word, from the current topics of its occurrences. As none
+	 * of them has been resampled yet in this iteration, these are the counts
+	 * from the start of the iteration.
+	 */
+	private void buildWordTable(int word)
+	{
+		int[] topics = model.topics;
+		int start = wordOffsets[word];
+		int size = 0;
+		for (int i = tokenOffsets[word]; i < tokenOffsets[word + 1]; i++) {
+			int topic = topics[wordTokens[i]];
+			if (counts[topic]++ == 0)
+				tableTopics[start + size++] = topic;
+		}
+		Arrays.sort(tableTopics, start, start + size);
+
+		double mass = 0.0;
+		for (int i = start; i < start + size; i++) {
+			int topic = tableTopics[i];
+			tableCounts[i] = counts[topic];
+			tableWeights[i] = counts[topic] / denominators[topic];
+			mass += tableWeights[i];
+			counts[topic] = 0;
+		}
+		if (size > 0)
+			FuncUtils.buildAliasTable(tableWeights, start, size, tableProb,
+				tableAlias, work);
+		tableSize[word] = size;
+		tableMass[word] = mass;
+		tableIteration[word] = iteration;
+	}
+}
@@ -0,0 +1,233 @@
+package models;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import utility.TopicKernel;
+import utility.TopicWordCounts;
+
+/**
+ * jLDADMM: A Java package for the LDA and DMM topic models
+ *
+ * Model-parallel LDA on several threads, which partitions both the documents
+ * and the vocabulary, in the style of:
+ *
+ * Hsiang-Fu Yu, Cho-Jui Hsieh, Hyokun Yun, S.V.N. Vishwanathan and Inderjit
+ * S. Dhillon. 2015. A Scalable Asynchronous Distributed Algorithm for Topic
+ * Modeling. In Proceedings of the 24th International Conference on World Wide
+ * Web, pages 1340–1350.
+ *
+ * The documents are split into numThreads blocks of contiguous documents, and
+ * the word types into numThreads blocks of contiguous word IDs, both holding
+ * about the same number of words. An iteration runs numThreads sub-epochs: in
+ * sub-epoch e, thread p samples the words of document block p whose type is in
+ * word block (p + e) mod numThreads, with the dense sampler. No two threads
+ * ever touch the same row of docTopicCount or the same word type of
+ * topicWordCount, so both are updated in place without locks, and every word
+ * is sampled once per iteration. Only sumTopicWordCount is shared: every
+ * thread works on its own copy, whose changes are added up at the end of every
+ * sub-epoch. Within a sub-epoch a thread does not see the changes the others
+ * make to the topic totals, so samples are only approximate through the
+ * totals, which change slowly.
+ */
+
+public class BlockParallelLDASampler
+	extends LDASampler
+{
+	private int numThreads;
+	// Documents of every block: block p holds documents docBlockOffsets[p]
+	// ... docBlockOffsets[p + 1] - 1
+	private int[] docBlockOffsets;
+	// Positions in tokens of the words of document block p whose type is in
+	// word block b, by ascending position: blockTokens[p][blockOffsets[p][b]]
+	// ... blockTokens[p][blockOffsets[p][b + 1] - 1]
+	private int[][] blockTokens;
+	private int[][] blockOffsets;
+
+	private List<Worker> workers;
+	private ExecutorService executor;
+	private int subEpoch;
+
+	public BlockParallelLDASampler(GibbsSamplingLDA model)
+	{
+		super(model);
+		numThreads = model.numThreads;
+		int numWords = model.numWordsInCorpus;
+
+		// Balance the document blocks by number of words
+		docBlockOffsets = new int[numThreads + 1];
+		int dIndex = 0;
+		for (int p = 1; p < numThreads; p++) {
+			long target = (long) numWords * p / numThreads;
+			while (dIndex < model.numDocuments && model.docOffsets[dIndex] < target)
+				dIndex++;
+			docBlockOffsets[p] = dIndex;
+		}
+		docBlockOffsets[numThreads] = model.numDocuments;
+
+		// Balance the word blocks by number of occurrences
+		int[] wordFrequency = new int[model.vocabularySize];
+		for (int i = 0; i < numWords; i++)
+			wordFrequency[model.tokens[i]]++;
+		int[] wordBlock = new int[model.vocabularySize];
+		long occurrences = 0;
+		for (int w = 0; w < model.vocabularySize; w++) {
+			wordBlock[w] = (int) Math.min(numThreads - 1, occurrences
+				* numThreads / Math.max(1, numWords));
+			occurrences += wordFrequency[w];
+		}
+
+		// Group the words of every document block by word block
+		blockTokens = new int[numThreads][];
+		blockOffsets = new int[numThreads][numThreads + 1];
+		for (int p = 0; p < numThreads; p++) {
+			int start = model.docOffsets[docBlockOffsets[p]];
+			int end = model.docOffsets[docBlockOffsets[p + 1]];
+			int[] offsets = blockOffsets[p];
+			for (int wIndex = start; wIndex < end; wIndex++)
+				offsets[wordBlock[model.tokens[wIndex]] + 1]++;
+			for (int b = 0; b < numThreads; b++)
+				offsets[b + 1] += offsets[b];
+			blockTokens[p] = new int[end - start];
+			int[] next = new int[numThreads];
+			System.arraycopy(offsets, 0, next, 0, numThreads);
+			for (int wIndex = start; wIndex < end; wIndex++)
+				blockTokens[p][next[wordBlock[model.tokens[wIndex]]]++] = wIndex;
+		}
+
+		workers = new ArrayList<Worker>();
+		for (int p = 0; p < numThreads; p++)
+			workers.add(new Worker(p));
+		executor = Executors.newFixedThreadPool(numThreads, runnable -> {
+			Thread thread = new Thread(runnable, "lda-sampler");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	public void sampleInSingleIteration()
+	{
+		int[] sumTopicWordCount = model.sumTopicWordCount;
+		for (subEpoch = 0; subEpoch < numThreads; subEpoch++) {
+			try {
+				for (Future<Void> future : executor.invokeAll(workers))
+					future.get();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			}
+			catch (ExecutionException e) {
+				throw new RuntimeException(e.getCause());
+			}
+
+			// Reconcile the topic totals of all threads
+			for (Worker worker : workers) {
+				for (int tIndex = 0; tIndex < model.numTopics; tIndex++) {
+					sumTopicWordCount[tIndex] += worker.sumDelta[tIndex];
+					worker.sumDelta[tIndex] = 0;
+				}
+			}
+		}
+	}
+
+	public void close()
+	{
+		executor.shutdown();
+	}
+
+	/**
+	 * Thread sampling document block p, with its own copy of the topic totals
+	 * and scratch space
+	 */
+	private class Worker
+		implements Callable<Void>
+	{
+		private int p;
+		private int[] sumTopicWordCount;
+		// Changes made to sumTopicWordCount in the current sub-epoch
+		private int[] sumDelta;
+		private TopicKernel kernel;
+		private int[] docCounts;
+		private int[] wordCounts;
+
+		Worker(int p)
+		{
+			this.p = p;
+			sumTopicWordCount = new int[model.numTopics];
+			sumDelta = new int[model.numTopics];
+			kernel = TopicKernel.create(model.kernel, model.numTopics,
+				model.random.split(), p == 0 ? model.logStream : null);
+			docCounts = new int[model.numTopics];
+			wordCounts = new int[model.numTopics];
+		}
+
+		public Void call()
+		{
+			int numTopics = model.numTopics;
+			double alpha = model.alpha;
+			double beta = model.beta;
+			double betaSum = model.betaSum;
+			int[] tokens = model.tokens;
+			int[] topics = model.topics;
+			int[] docOffsets = model.docOffsets;
+			TopicWordCounts topicWordCount = model.topicWordCount;
+
+			System.arraycopy(model.sumTopicWordCount, 0, sumTopicWordCount, 0,
+				numTopics);
+			for (int tIndex = 0; tIndex < numTopics; tIndex++)
+				kernel.setDenominator(tIndex, sumTopicWordCount[tIndex] + betaSum);
+
+			int b = (p + subEpoch) % numThreads;
+			int[] positions = blockTokens[p];
+			int dIndex = -1;
+			for (int i = blockOffsets[p][b]; i < blockOffsets[p][b + 1]; i++) {
+				int wIndex = positions[i];
+				if (dIndex < 0 || wIndex >= docOffsets[dIndex + 1]) {
+					if (dIndex >= 0)
+						model.docTopicCount.setRow(dIndex, docCounts, topics,
+							docOffsets[dIndex], docOffsets[dIndex + 1]);
+					if (dIndex < 0)
+						dIndex = docBlockOffsets[p];
+					while (wIndex >= docOffsets[dIndex + 1])
+						dIndex++;
+					model.docTopicCount.getRow(dIndex, docCounts);
+				}
+
+				// Get current word and its topic
+				int topic = topics[wIndex];
+				int word = tokens[wIndex];
+
+				// Decrease counts
+				docCounts[topic] -= 1;
+				topicWordCount.add(topic, word, -1);
+				sumTopicWordCount[topic] -= 1;
+				sumDelta[topic] -= 1;
+				kernel.setDenominator(topic, sumTopicWordCount[topic] + betaSum);
+
+				// Sample a topic
+				topicWordCount.getWord(word, wordCounts);
+				topic = kernel.sampleLDA(docCounts, wordCounts, alpha, beta);
+
+				// Increase counts
+				docCounts[topic] += 1;
+				topicWordCount.add(topic, word, 1);
+				sumTopicWordCount[topic] += 1;
+				sumDelta[topic] += 1;
+				kernel.setDenominator(topic, sumTopicWordCount[topic] + betaSum);
+
+				// Update topic assignments
+				topics[wIndex] = topic;
+			}
+			if (dIndex >= 0)
+				model.docTopicCount.setRow(dIndex, docCounts, topics,
+					docOffsets[dIndex], docOffsets[dIndex + 1]);
+			return null;
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package models;
+
+import utility.RandomStream;
+
+/**
+ * jLDADMM: A Java package for the LDA and DMM topic models
+ *
+ * Base class for the alternative algorithms {@link GibbsSamplingDMM} can use
+ * to resample all cluster assignments once. Implementations work directly on
+ * the model's corpus and counts, and must leave topicAssignments,
+ * docTopicCount, topicWordCount and sumTopicWordCount consistent at the end
+ * of every iteration, so that the model can be written out at any save step.
+ */
+
+public abstract class DMMSampler
+{
+	protected GibbsSamplingDMM model;
+	// Stream of the sampling thread
+	protected RandomStream random;
+
+	public DMMSampler(GibbsSamplingDMM model)
+	{
+		this.model = model;
+		random = model.random;
+	}
+
+	/**
+	 * Resample the cluster of every document in the corpus once
+	 */
+	public abstract void sampleInSingleIteration();
+
+	/**
+	 * Stop the threads of the sampler, if any, once sampling is over
+	 */
+	public void close()
+	{
+	}
+
+	/**
+	 * Create the sampler with the given name for the given model.
+	 * @param name The sampler name, as given to the <var>-sampler</var> option.
+	 * @param model The model to sample.
+	 * @return The sampler, or null for the default "dense" sampler, which
+	 *         {@link GibbsSamplingDMM} implements itself, unless it is to run
+	 *         in several threads.
+	 */
+	public static DMMSampler forName(String name, GibbsSamplingDMM model)
+	{
+		if (name == null || name.equals("dense")) {
+			if (model.numThreads <= 1)
+				return null;
+			else
+				return new ParallelDMMSampler(model);
+		}
+		else if (name.equals("sparse"))
+			return new SparseDMMSampler(model);
+		else if (name.equals("mh"))
+			return new MHDMMSampler(model);
+		else
+			throw new IllegalArgumentException("Unknown DMM sampler: " + name);
+	}
+}
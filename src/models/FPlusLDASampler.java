@@ -0,0 +1,151 @@
+package models;
+
+import java.util.Arrays;
+
+import utility.FenwickTree;
+import utility.SortedSparseCounts;
+
+/**
+ * jLDADMM: A Java package for the LDA and DMM topic models
+ *
+ * Exact word-by-word Gibbs sampler using an F+tree, as in F+LDA:
+ *
+ * Hsiang-Fu Yu, Cho-Jui Hsieh, Hyokun Yun, S.V.N. Vishwanathan and Inderjit S.
+ * Dhillon. 2015. A Scalable Asynchronous Distributed Algorithm for Topic
+ * Modeling. In Proceedings of the 24th International Conference on World Wide
+ * Web, pages 1340–1350.
+ *
+ * The conditional of a word w in document d splits into
+ *
+ * (alpha + n_dt) * (n_wt + beta) / (n_t + betaSum)
+ *
+ * The occurrences of the corpus are visited grouped by word type, so that
+ * (n_wt + beta) / (n_t + betaSum) only depends on the current word's column of
+ * counts: it is kept in a Fenwick tree, built
+ * once per word type, and after every draw only the old and new topics of the
+ * word need an O(log K) update. The alpha part of the conditional is drawn
+ * from the tree, and the n_dt part, which is non-zero only for the few topics
+ * of the document, from the document's sparse counts.
+ */
+
+public class FPlusLDASampler
+	extends LDASampler
+{
+	// Positions in tokens of the occurrences of every word type: the
+	// occurrences of w are wordTokens[tokenOffsets[w]] ...
+	// wordTokens[tokenOffsets[w + 1] - 1]
+	private int[] wordTokens;
+	private int[] tokenOffsets;
+	// Document of every word of the corpus
+	private int[] tokenDocs;
+
+	// Tree over (n_wt + beta) / (n_t + betaSum) of the current word
+	private FenwickTree wordTree;
+	private double[] wordWeights;
+	private int[] wordCounts;
+	// Cumulative document term over the topics of the current document
+	private double[] docCumulative;
+
+	public FPlusLDASampler(GibbsSamplingLDA model)
+	{
+		super(model);
+		int numTopics = model.numTopics;
+		int vocabularySize = model.vocabularySize;
+		int numWords = model.numWordsInCorpus;
+
+		// Index the occurrences of every word type
+		tokenOffsets = new int[vocabularySize + 1];
+		for (int i = 0; i < numWords; i++)
+			tokenOffsets[model.tokens[i] + 1]++;
+		for (int w = 0; w < vocabularySize; w++)
+			tokenOffsets[w + 1] += tokenOffsets[w];
+		wordTokens = new int[numWords];
+		int[] next = Arrays.copyOf(tokenOffsets, vocabularySize);
+		for (int i = 0; i < numWords; i++)
+			wordTokens[next[model.tokens[i]]++] = i;
+
+		tokenDocs = new int[numWords];
+		for (int dIndex = 0; dIndex < model.numDocuments; dIndex++)
+			Arrays.fill(tokenDocs, model.docOffsets[dIndex],
+				model.docOffsets[dIndex + 1], dIndex);
+
+		wordTree = new FenwickTree(numTopics);
+		wordWeights = new double[numTopics];
+		wordCounts = new int[numTopics];
+		docCumulative = new double[numTopics];
+	}
+
+	public void sampleInSingleIteration()
+	{
+		int numTopics = model.numTopics;
+		double alpha = model.alpha;
+		double beta = model.beta;
+		double betaSum = model.betaSum;
+		int[] topics = model.topics;
+		SortedSparseCounts docTopics = model.docTopicCount;
+		int[] sumTopicWordCount = model.sumTopicWordCount;
+
+		for (int word = 0; word < model.vocabularySize; word++) {
+			if (tokenOffsets[word] == tokenOffsets[word + 1])
+				continue;
+
+			model.topicWordCount.getWord(word, wordCounts);
+			for (int tIndex = 0; tIndex < numTopics; tIndex++)
+				wordWeights[tIndex] = (wordCounts[tIndex] + beta)
+					/ (sumTopicWordCount[tIndex] + betaSum);
+			wordTree.build(wordWeights);
+
+			for (int j = tokenOffsets[word]; j < tokenOffsets[word + 1]; j++) {
+				int wIndex = wordTokens[j];
+				int dIndex = tokenDocs[wIndex];
+				int topic = topics[wIndex];
+
+				// Decrease counts
+				docTopics.add(dIndex, topic, -1);
+				updateCounts(word, topic, -1);
+
+				// Document term, over the document's non-zero topics only
+				int docSize = docTopics.size(dIndex);
+				double docMass = 0.0;
+				for (int i = 0; i < docSize; i++) {
+					int t = docTopics.topic(dIndex, i);
+					docMass += docTopics.count(dIndex, i)
+						* wordTree.get(t);
+					docCumulative[i] = docMass;
+				}
+
+				// Sample a topic
+				double u = random.nextDouble()
+					* (docMass + alpha * wordTree.total());
+				if (u < docMass) {
+					int i = 0;
+					while (i < docSize - 1 && docCumulative[i] <= u)
+						i++;
+					topic = docTopics.topic(dIndex, i);
+				}
+				else {
+					topic = wordTree.find((u - docMass) / alpha);
+				}
+
+				// Increase counts
+				docTopics.add(dIndex, topic, 1);
+				updateCounts(word, topic, 1);
+
+				// Update topic assignments
+				topics[wIndex] = topic;
+			}
+		}
+	}
+
+	/**
+	 * Add delta to the counts of a word and topic, and update the word's tree
+	 */
+	private void updateCounts(int word, int topic, int delta)
+	{
+		wordCounts[topic] += delta;
+		model.topicWordCount.add(topic, word, delta);
+		model.sumTopicWordCount[topic] += delta;
+		wordTree.set(topic, (wordCounts[topic] + model.beta)
+			/ (model.sumTopicWordCount[topic] + model.betaSum));
+	}
+}
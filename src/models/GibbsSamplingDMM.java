@@ -18,7 +18,11 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 
+import utility.ActiveClusters;
+import utility.Corpus;
+import utility.DMMScorer;
 import utility.FuncUtils;
+import utility.WordBags;
 
 /**
  * jLDADMM: A Java package for the LDA and DMM topic models
@@ -39,7 +43,12 @@ public class GibbsSamplingDMM extends JLDADMMModel
 	public double alphaSum; // alpha * numTopics
 	public double betaSum; // beta * vocabularySize
 
-	public List<List<Integer>> corpus; // Word ID-based corpus
+	// Word ID-based corpus, stored flat: the words of document d are
+	// tokens[docOffsets[d]] ... tokens[docOffsets[d + 1] - 1]
+	public int[] tokens;
+	// Offset of the first word of every document in tokens, followed by
+	// numWordsInCorpus (so there are numDocuments + 1 entries)
+	public int[] docOffsets;
 	public List<Integer> topicAssignments; // Topics assignments for documents
 	public int numDocuments; // Number of documents in the corpus
 	public int numWordsInCorpus; // Number of words in the corpus
@@ -61,10 +70,25 @@ public class GibbsSamplingDMM extends JLDADMMModel
 	// Double array used to sample a topic
 	public double[] multiPros;
 
-	// Given a document, number of times its i^{th} word appearing from
-	// the first index to the i^{th}-index in the document
-	// Example: given a document of "a a b a b c d c". We have: 1 2 1 3 2 1 1 2
-	public List<List<Integer>> occurenceToIndexCount;
+	// The documents as bags of distinct word types with their counts, used
+	// to score a document against a topic once per word type
+	public WordBags wordBags;
+	// Log-space scorer and non-empty clusters of the serial sampler
+	protected DMMScorer scorer;
+	protected ActiveClusters activeClusters;
+
+	// Number of threads sampling documents in parallel
+	public int numThreads = 1;
+	// Number of batches every iteration is split into when sampling with
+	// several threads: the threads' count changes are merged after every
+	// batch
+	public int numBatches = 1;
+	// Sampling algorithm: "dense" (default), "sparse" or "mh"
+	// (Metropolis-Hastings)
+	public String sampler = "dense";
+	// Implementation of any sampler other than the default dense one, or of
+	// the dense one on several threads
+	protected DMMSampler samplerImpl;
 
 	public String orgExpName = "DMMmodel";
 
@@ -167,6 +191,8 @@ public class GibbsSamplingDMM extends JLDADMMModel
 		   tmp.delete();
 		}
 		
+		initializeRandom();
+
 		this.parametersWriter = parametersWriter;
 		this.dictionaryWriter = dictionaryWriter;		
 		this.topicAssignmentsWriter = topicAssignmentsWriter;
@@ -176,57 +202,17 @@ public class GibbsSamplingDMM extends JLDADMMModel
 		
 		if (logStream != null) logStream.println("Reading topic modeling corpus...");
 
-		word2IdVocabulary = new HashMap<String, Integer>();
-		id2WordVocabulary = new HashMap<Integer, String>();
-		corpus = new ArrayList<List<Integer>>();
-		occurenceToIndexCount = new ArrayList<List<Integer>>();
-		numDocuments = 0;
-		numWordsInCorpus = 0;
-
-		BufferedReader br = null;
-		try {
-			int indexWord = -1;
-			br = corpusReader;
-			for (String doc; (doc = br.readLine()) != null;) {
-				if (doc.trim().length() == 0)
-					continue;
-
-				String[] words = doc.trim().split("\\s+");
-				List<Integer> document = new ArrayList<Integer>();
-
-				List<Integer> wordOccurenceToIndexInDoc = new ArrayList<Integer>();
-				HashMap<String, Integer> wordOccurenceToIndexInDocCount = new HashMap<String, Integer>();
-
-				for (String word : words) {
-					if (word2IdVocabulary.containsKey(word)) {
-						document.add(word2IdVocabulary.get(word));
-					}
-					else {
-						indexWord += 1;
-						word2IdVocabulary.put(word, indexWord);
-						id2WordVocabulary.put(indexWord, word);
-						document.add(indexWord);
-					}
-
-					int times = 0;
-					if (wordOccurenceToIndexInDocCount.containsKey(word)) {
-						times = wordOccurenceToIndexInDocCount.get(word);
-					}
-					times += 1;
-					wordOccurenceToIndexInDocCount.put(word, times);
-					wordOccurenceToIndexInDoc.add(times);
-				}
-				numDocuments++;
-				numWordsInCorpus += document.size();
-				corpus.add(document);
-				occurenceToIndexCount.add(wordOccurenceToIndexInDoc);
-			}
-		}
-		catch (Exception e) {
-			e.printStackTrace();
-		}
-
-		vocabularySize = word2IdVocabulary.size();
+		Corpus tokenized = sharedCorpus != null ? sharedCorpus : Corpus
+			.read(corpusReader);
+		word2IdVocabulary = tokenized.word2IdVocabulary;
+		id2WordVocabulary = tokenized.id2WordVocabulary;
+		tokens = tokenized.tokens;
+		docOffsets = tokenized.docOffsets;
+		wordBags = tokenized.getWordBags();
+		numDocuments = tokenized.numDocuments;
+		numWordsInCorpus = tokenized.numWordsInCorpus;
+
+		vocabularySize = tokenized.vocabularySize;
 		docTopicCount = new int[numTopics];
 		topicWordCount = new int[numTopics][vocabularySize];
 		sumTopicWordCount = new int[numTopics];
@@ -263,13 +249,11 @@ public class GibbsSamplingDMM extends JLDADMMModel
 		if (logStream != null) logStream.println("Randomly initialzing topic assignments ...");
 		topicAssignments = new ArrayList<Integer>();
 		for (int i = 0; i < numDocuments; i++) {
-			int topic = FuncUtils.nextDiscrete(multiPros); // Sample a topic
+			int topic = FuncUtils.nextDiscrete(multiPros, random); // Sample a topic
 			docTopicCount[topic] += 1;
-			int docSize = corpus.get(i).size();
-			for (int j = 0; j < docSize; j++) {
-				topicWordCount[topic][corpus.get(i).get(j)] += 1;
-				sumTopicWordCount[topic] += 1;
-			}
+			for (int k = wordBags.offsets[i]; k < wordBags.offsets[i + 1]; k++)
+				topicWordCount[topic][wordBags.words[k]] += wordBags.counts[k];
+			sumTopicWordCount[topic] += wordBags.lengths[i];
 			topicAssignments.add(topic);
 		}
 	}
@@ -290,15 +274,19 @@ public class GibbsSamplingDMM extends JLDADMMModel
 			int numWords = 0;
 			for (String line; (line = br.readLine()) != null;) {
 				String[] strTopics = line.trim().split("\\s+");
+				if (docID >= numDocuments
+					|| strTopics.length != wordBags.lengths[docID]) {
+					if (logStream != null) logStream
+						.println("The topic modeling corpus and topic assignment file are not consistent!!!");
+					throw new Exception();
+				}
 				int topic = new Integer(strTopics[0]) % numTopics;
+				// Increase counts
 				docTopicCount[topic] += 1;
-				for (int j = 0; j < strTopics.length; j++) {
-					// Increase counts
-					topicWordCount[topic][corpus.get(docID).get(j)] += 1;
-					sumTopicWordCount[topic] += 1;
-
-					numWords++;
-				}
+				for (int k = wordBags.offsets[docID]; k < wordBags.offsets[docID + 1]; k++)
+					topicWordCount[topic][wordBags.words[k]] += wordBags.counts[k];
+				sumTopicWordCount[topic] += strTopics.length;
+				numWords += strTopics.length;
 				topicAssignments.add(topic);
 				docID++;
 			}
@@ -320,66 +308,111 @@ public class GibbsSamplingDMM extends JLDADMMModel
 		writeParameters();
 		writeDictionary();
 
-		if (logStream != null) logStream.println("Running Gibbs sampling inference: ");
+		samplerImpl = DMMSampler.forName(sampler, this);
+		try {
+			if (numThreads > 1 && !sampler.equals("dense") && logStream != null)
+				logStream.println("The " + sampler
+					+ " sampler runs in a single thread");
+
+			if (logStream != null) logStream.println("Running Gibbs sampling inference: ");
 
-		for (int iter = 1; iter <= numIterations; iter++) {
+			SnapshotWriter snapshotWriter = new SnapshotWriter();
+			for (int iter = 1; iter <= numIterations; iter++) {
 
-			if (logStream != null) logStream.println("\tSampling iteration: " + (iter));
-			// if (logStream != null) logStream.println("\t\tPerplexity: " + computePerplexity());
+				if (logStream != null) logStream.println("\tSampling iteration: " + (iter));
+				// if (logStream != null) logStream.println("\t\tPerplexity: " + computePerplexity());
 
-			sampleInSingleIteration();
+				sampleInSingleIteration();
 
-			if ((savestep > 0) && (iter % savestep == 0)
-				&& (iter < numIterations)) {
-				if (logStream != null) logStream.println("\t\tSaving the output from the " + iter
-					+ "^{th} sample");
-				expName = orgExpName + "-" + iter;
-				write();
+				if ((savestep > 0) && (iter % savestep == 0)
+					&& (iter < numIterations)) {
+					if (logStream != null) logStream.println("\t\tSaving the output from the " + iter
+						+ "^{th} sample");
+					// Only copy the topic assignments once the previous snapshot
+					// is written, so that at most one is held in memory
+					snapshotWriter.await();
+					snapshotWriter.submit(snapshot(orgExpName + "-" + iter));
+				}
 			}
-		}
-		expName = orgExpName;
+			snapshotWriter.close();
 
-		if (logStream != null) logStream.println("Writing output from the last sample ...");
-		write();
+			if (logStream != null) logStream.println("Writing output from the last sample ...");
+			write();
 
-		if (logStream != null) logStream.println("Sampling completed!");
+			if (logStream != null) logStream.println("Sampling completed!");
+		}
+		finally {
+			closeSampler();
+		}
+
+	}
 
+	/**
+	 * Stop the threads of the sampler, if any. The next call to
+	 * sampleInSingleIteration creates the sampler again.
+	 */
+	public void closeSampler()
+	{
+		if (samplerImpl != null)
+			samplerImpl.close();
+		samplerImpl = null;
 	}
 
 	public void sampleInSingleIteration()
 	{
-		for (int dIndex = 0; dIndex < numDocuments; dIndex++) {
+		if (!sampler.equals("dense") || numThreads > 1) {
+			if (samplerImpl == null)
+				samplerImpl = DMMSampler.forName(sampler, this);
+			samplerImpl.sampleInSingleIteration();
+			return;
+		}
+
+		if (scorer == null) {
+			scorer = new DMMScorer(numTopics, alpha, beta, betaSum, random);
+			activeClusters = new ActiveClusters(numTopics);
+		}
+		sampleDocuments(0, numDocuments, docTopicCount, topicWordCount,
+			sumTopicWordCount, scorer, activeClusters);
+	}
+
+	/**
+	 * Resample the topics of documents firstDoc ... lastDoc - 1 against the
+	 * given counts, with the given scorer, keeping track of the non-empty
+	 * clusters in active
+	 */
+	protected void sampleDocuments(int firstDoc, int lastDoc,
+		int[] docTopicCount, int[][] topicWordCount, int[] sumTopicWordCount,
+		DMMScorer scorer, ActiveClusters active)
+	{
+		active.rebuild(docTopicCount, sumTopicWordCount);
+		int[] bagOffsets = wordBags.offsets;
+		int[] bagWords = wordBags.words;
+		int[] bagCounts = wordBags.counts;
+
+		for (int dIndex = firstDoc; dIndex < lastDoc; dIndex++) {
 			int topic = topicAssignments.get(dIndex);
-			List<Integer> document = corpus.get(dIndex);
-			int docSize = document.size();
+			int bagStart = bagOffsets[dIndex];
+			int bagEnd = bagOffsets[dIndex + 1];
+			int docSize = wordBags.lengths[dIndex];
 
 			// Decrease counts
 			docTopicCount[topic] -= 1;
-			for (int wIndex = 0; wIndex < docSize; wIndex++) {
-				int word = document.get(wIndex);
-				topicWordCount[topic][word] -= 1;
-				sumTopicWordCount[topic] -= 1;
-			}
+			for (int i = bagStart; i < bagEnd; i++)
+				topicWordCount[topic][bagWords[i]] -= bagCounts[i];
+			sumTopicWordCount[topic] -= docSize;
+			active.update(topic, docTopicCount, sumTopicWordCount);
 
 			// Sample a topic
-			for (int tIndex = 0; tIndex < numTopics; tIndex++) {
-				multiPros[tIndex] = (docTopicCount[tIndex] + alpha);
-				for (int wIndex = 0; wIndex < docSize; wIndex++) {
-					int word = document.get(wIndex);
-					multiPros[tIndex] *= (topicWordCount[tIndex][word] + beta
-						+ occurenceToIndexCount.get(dIndex).get(wIndex) - 1)
-						/ (sumTopicWordCount[tIndex] + betaSum + wIndex);
-				}
-			}
-			topic = FuncUtils.nextDiscrete(multiPros);
+			topic = scorer.sample(active, docTopicCount, topicWordCount,
+				sumTopicWordCount, bagWords, bagCounts, bagStart, bagEnd,
+				docSize);
 
 			// Increase counts
 			docTopicCount[topic] += 1;
-			for (int wIndex = 0; wIndex < docSize; wIndex++) {
-				int word = document.get(wIndex);
-				topicWordCount[topic][word] += 1;
-				sumTopicWordCount[topic] += 1;
-			}
+			for (int i = bagStart; i < bagEnd; i++)
+				topicWordCount[topic][bagWords[i]] += bagCounts[i];
+			sumTopicWordCount[topic] += docSize;
+			active.update(topic, docTopicCount, sumTopicWordCount);
 			// Update topic assignments
 			topicAssignments.set(dIndex, topic);
 		}
@@ -402,6 +435,15 @@ public class GibbsSamplingDMM extends JLDADMMModel
 			writer.write("\n-initFile" + "\t" + tAssignsFilePath);
 		if (savestep > 0)
 			writer.write("\n-sstep" + "\t" + savestep);
+		writer.write("\n-seed" + "\t" + seed);
+		if (!randomGenerator.equals("splittable"))
+			writer.write("\n-rng" + "\t" + randomGenerator);
+		if (!sampler.equals("dense"))
+			writer.write("\n-sampler" + "\t" + sampler);
+		if (numThreads > 1)
+			writer.write("\n-threads" + "\t" + numThreads);
+		if (numThreads > 1 && numBatches > 1)
+			writer.write("\n-batches" + "\t" + numBatches);
 
 		writer.close();
 	}
@@ -421,9 +463,8 @@ public class GibbsSamplingDMM extends JLDADMMModel
 		BufferedWriter writer = new BufferedWriter(
 		   new FileWriter(new File(folderPath, expName + ".IDcorpus")));
 		for (int dIndex = 0; dIndex < numDocuments; dIndex++) {
-			int docSize = corpus.get(dIndex).size();
-			for (int wIndex = 0; wIndex < docSize; wIndex++) {
-				writer.write(corpus.get(dIndex).get(wIndex) + " ");
+			for (int wIndex = docOffsets[dIndex]; wIndex < docOffsets[dIndex + 1]; wIndex++) {
+				writer.write(tokens[wIndex] + " ");
 			}
 			writer.write("\n");
 		}
@@ -435,7 +476,7 @@ public class GibbsSamplingDMM extends JLDADMMModel
 	{
 		BufferedWriter writer = topicAssignmentsWriter;
 		for (int dIndex = 0; dIndex < numDocuments; dIndex++) {
-			int docSize = corpus.get(dIndex).size();
+			int docSize = wordBags.lengths[dIndex];
 			int topic = topicAssignments.get(dIndex);
 			for (int wIndex = 0; wIndex < docSize; wIndex++) {
 				writer.write(topic + " ");
@@ -515,17 +556,18 @@ public class GibbsSamplingDMM extends JLDADMMModel
 		BufferedWriter writer = docTopicProsWriter;
 
 		for (int i = 0; i < numDocuments; i++) {
-			int docSize = corpus.get(i).size();
-			double sum = 0.0;
+			int docSize = wordBags.lengths[i];
+			// In log space, as the product underflows for long documents
 			for (int tIndex = 0; tIndex < numTopics; tIndex++) {
-				multiPros[tIndex] = (docTopicCount[tIndex] + alpha);
-				for (int wIndex = 0; wIndex < docSize; wIndex++) {
-					int word = corpus.get(i).get(wIndex);
-					multiPros[tIndex] *= (topicWordCount[tIndex][word] + beta)
-						/ (sumTopicWordCount[tIndex] + betaSum);
+				multiPros[tIndex] = Math.log(docTopicCount[tIndex] + alpha)
+					- docSize * Math.log(sumTopicWordCount[tIndex] + betaSum);
+				for (int wIndex = docOffsets[i]; wIndex < docOffsets[i + 1]; wIndex++) {
+					int word = tokens[wIndex];
+					multiPros[tIndex] += Math.log(topicWordCount[tIndex][word]
+						+ beta);
 				}
-				sum += multiPros[tIndex];
 			}
+			double sum = FuncUtils.expShifted(multiPros);
 			for (int tIndex = 0; tIndex < numTopics; tIndex++) {
 				writer.write((multiPros[tIndex] / sum) + " ");
 			}
@@ -543,6 +585,53 @@ public class GibbsSamplingDMM extends JLDADMMModel
 		writeTopicWordPros();
 	}
 
+	/**
+	 * Snapshot of the current sample, to be written under the given
+	 * experiment name. Only the topic assignments are copied here; the counts
+	 * are rebuilt from them when the snapshot is written.
+	 */
+	protected SnapshotWriter.Snapshot snapshot(String name)
+	{
+		final GibbsSamplingDMM snapshot = new GibbsSamplingDMM();
+		snapshot.alpha = alpha;
+		snapshot.beta = beta;
+		snapshot.alphaSum = alphaSum;
+		snapshot.betaSum = betaSum;
+		snapshot.numTopics = numTopics;
+		snapshot.topWords = topWords;
+		snapshot.expName = name;
+		snapshot.folderPath = folderPath;
+		snapshot.id2WordVocabulary = id2WordVocabulary;
+		snapshot.vocabularySize = vocabularySize;
+		snapshot.tokens = tokens;
+		snapshot.docOffsets = docOffsets;
+		snapshot.wordBags = wordBags;
+		snapshot.numDocuments = numDocuments;
+		snapshot.numWordsInCorpus = numWordsInCorpus;
+		snapshot.topicAssignments = new ArrayList<Integer>(topicAssignments);
+		return () -> {
+			snapshot.docTopicCount = new int[numTopics];
+			snapshot.topicWordCount = new int[numTopics][vocabularySize];
+			snapshot.sumTopicWordCount = new int[numTopics];
+			snapshot.multiPros = new double[numTopics];
+			WordBags bags = snapshot.wordBags;
+			for (int dIndex = 0; dIndex < snapshot.numDocuments; dIndex++) {
+				int topic = snapshot.topicAssignments.get(dIndex);
+				snapshot.docTopicCount[topic] += 1;
+				for (int k = bags.offsets[dIndex]; k < bags.offsets[dIndex + 1]; k++)
+					snapshot.topicWordCount[topic][bags.words[k]] += bags.counts[k];
+				snapshot.sumTopicWordCount[topic] += bags.lengths[dIndex];
+			}
+			snapshot.topTopicalWordsWriter = snapshot.outputWriter(name,
+				".topWords");
+			snapshot.docTopicProsWriter = snapshot.outputWriter(name, ".theta");
+			snapshot.topicAssignmentsWriter = snapshot.outputWriter(name,
+				".topicAssignments");
+			snapshot.topicWordProsWriter = snapshot.outputWriter(name, ".phi");
+			snapshot.write();
+		};
+	}
+
 	public static void main(String args[])
 		throws Exception
 	{
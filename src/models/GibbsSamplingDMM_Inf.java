@@ -6,13 +6,22 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
+import utility.ActiveClusters;
+import utility.DMMScorer;
 import utility.FuncUtils;
+import utility.RandomStream;
+import utility.WordBags;
 
 /**
  * jLDADMM: A Java package for the LDA and DMM topic models
@@ -34,7 +43,12 @@ public class GibbsSamplingDMM_Inf
 	public double alphaSum; // alpha * numTopics
 	public double betaSum; // beta * vocabularySize
 
-	public List<List<Integer>> corpus; // Word ID-based corpus
+	// Word ID-based corpus, stored flat: the words of document d are
+	// tokens[docOffsets[d]] ... tokens[docOffsets[d + 1] - 1]
+	public int[] tokens;
+	// Offset of the first word of every document in tokens, followed by
+	// numWordsInCorpus (so there are numDocuments + 1 entries)
+	public int[] docOffsets;
 	public List<Integer> topicAssignments; // Topics assignments for documents
 	public int numDocuments; // Number of documents in the corpus
 	public int numWordsInCorpus; // Number of words in the corpus
@@ -55,27 +69,69 @@ public class GibbsSamplingDMM_Inf
 
 	// Double array used to sample a topic
 	public double[] multiPros;
+	// Log-space scorer and non-empty clusters of the serial sampler
+	protected DMMScorer scorer;
+	protected ActiveClusters activeClusters;
+
+	// Number of threads folding in the unseen documents. With more than one,
+	// every document is sampled against the trained counts only, which are
+	// read-only, and the cluster sizes at the start of the iteration, so
+	// documents are independent of each other within an iteration.
+	public int numThreads = 1;
+	// topicWordCount and sumTopicWordCount without the unseen corpus
+	private int[][] trainedTopicWordCount;
+	private int[] trainedSumTopicWordCount;
+	// Chunks of documents with the same number of words, sampled in parallel
+	private List<Callable<Void>> foldInChunks;
+	private ForkJoinPool pool;
+	// Topic assignments at the start of the iteration
+	private int[] previousTopics;
 
 	// Path to the directory containing the corpus
 	public String folderPath;
 	// Path to the topic modeling corpus
 	public String corpusPath;
 
-	// Given a document, number of times its i^{th} word appearing from
-	// the first index to the i^{th}-index in the document
-	// Example: given a document of "a a b a b c d c". We have: 1 2 1 3 2 1 1 2
-	public List<List<Integer>> occurenceToIndexCount;
+	// The documents as bags of distinct word types with their counts
+	public WordBags wordBags;
 
 	public String expName = "DMMinf";
 	public String orgExpName = "DMMinf";
 	public String tAssignsFilePath = "";
 	public int savestep = 0;
 
+	// Seed of the random number generator (0 picks one from the clock), and
+	// the generator: "splittable" (default) or "mt" (Mersenne Twister)
+	public long seed = 0;
+	public String randomGenerator = "splittable";
+	protected RandomStream random;
+
+	/**
+	 * Empty model, filled in by snapshot()
+	 */
+	private GibbsSamplingDMM_Inf()
+	{
+	}
+
 	public GibbsSamplingDMM_Inf(String pathToTrainingParasFile,
 		String pathToUnseenCorpus, int inNumIterations, int inTopWords,
 		String inExpName, int inSaveStep)
 		throws Exception
 	{
+		this(pathToTrainingParasFile, pathToUnseenCorpus, inNumIterations,
+			inTopWords, inExpName, inSaveStep, 0, "splittable");
+	}
+
+	public GibbsSamplingDMM_Inf(String pathToTrainingParasFile,
+		String pathToUnseenCorpus, int inNumIterations, int inTopWords,
+		String inExpName, int inSaveStep, long inSeed,
+		String inRandomGenerator)
+		throws Exception
+	{
+		seed = inSeed != 0 ? inSeed : RandomStream.newSeed();
+		randomGenerator = inRandomGenerator;
+		random = RandomStream.create(randomGenerator, seed);
+
 		HashMap<String, String> paras = parseTrainingParasFile(pathToTrainingParasFile);
 		if (!paras.get("-model").equals("DMM")) {
 			throw new Exception("Wrong pre-trained model!!!");
@@ -108,8 +164,8 @@ public class GibbsSamplingDMM_Inf
 			Math.max(pathToUnseenCorpus.lastIndexOf("/"),
 				pathToUnseenCorpus.lastIndexOf("\\")) + 1);
 		System.out.println("Reading unseen corpus: " + pathToUnseenCorpus);
-		corpus = new ArrayList<List<Integer>>();
-		occurenceToIndexCount = new ArrayList<List<Integer>>();
+		tokens = new int[1024];
+		docOffsets = new int[256];
 		numDocuments = 0;
 		numWordsInCorpus = 0;
 
@@ -121,35 +177,34 @@ public class GibbsSamplingDMM_Inf
 					continue;
 
 				String[] words = doc.trim().split("\\s+");
-				List<Integer> document = new ArrayList<Integer>();
-
-				List<Integer> wordOccurenceToIndexInDoc = new ArrayList<Integer>();
-				HashMap<String, Integer> wordOccurenceToIndexInDocCount = new HashMap<String, Integer>();
+				if (numWordsInCorpus + words.length > tokens.length)
+					tokens = Arrays.copyOf(tokens, Math.max(2 * tokens.length,
+						numWordsInCorpus + words.length));
+				if (numDocuments + 2 > docOffsets.length)
+					docOffsets = Arrays.copyOf(docOffsets, 2 * docOffsets.length);
 
+				docOffsets[numDocuments] = numWordsInCorpus;
 				for (String word : words) {
-					if (word2IdVocabulary.containsKey(word)) {
-						document.add(word2IdVocabulary.get(word));
-						int times = 0;
-						if (wordOccurenceToIndexInDocCount.containsKey(word)) {
-							times = wordOccurenceToIndexInDocCount.get(word);
-						}
-						times += 1;
-						wordOccurenceToIndexInDocCount.put(word, times);
-						wordOccurenceToIndexInDoc.add(times);
+					Integer id = word2IdVocabulary.get(word);
+					if (id != null) {
+						tokens[numWordsInCorpus++] = id;
 					}
 					else {
 						// Skip this unknown-word
 					}
 				}
 				numDocuments++;
-				numWordsInCorpus += document.size();
-				corpus.add(document);
-				occurenceToIndexCount.add(wordOccurenceToIndexInDoc);
 			}
 		}
 		catch (Exception e) {
 			e.printStackTrace();
 		}
+		docOffsets[numDocuments] = numWordsInCorpus;
+		docOffsets = Arrays.copyOf(docOffsets, numDocuments + 1);
+		tokens = Arrays.copyOf(tokens, numWordsInCorpus);
+
+		wordBags = new WordBags(tokens, docOffsets, numDocuments,
+			vocabularySize);
 
 		docTopicCount = new int[numTopics];
 		multiPros = new double[numTopics];
@@ -262,13 +317,11 @@ public class GibbsSamplingDMM_Inf
 		System.out.println("Randomly initialzing topic assignments ...");
 		topicAssignments = new ArrayList<Integer>();
 		for (int i = 0; i < numDocuments; i++) {
-			int topic = FuncUtils.nextDiscrete(multiPros); // Sample a topic
+			int topic = FuncUtils.nextDiscrete(multiPros, random); // Sample a topic
 			docTopicCount[topic] += 1;
-			int docSize = corpus.get(i).size();
-			for (int j = 0; j < docSize; j++) {
-				topicWordCount[topic][corpus.get(i).get(j)] += 1;
-				sumTopicWordCount[topic] += 1;
-			}
+			for (int k = wordBags.offsets[i]; k < wordBags.offsets[i + 1]; k++)
+				topicWordCount[topic][wordBags.words[k]] += wordBags.counts[k];
+			sumTopicWordCount[topic] += wordBags.lengths[i];
 			topicAssignments.add(topic);
 		}
 	}
@@ -279,71 +332,212 @@ public class GibbsSamplingDMM_Inf
 		writeParameters();
 		writeDictionary();
 
-		System.out.println("Running Gibbs sampling inference: ");
+		try {
+			System.out.println("Running Gibbs sampling inference: ");
 
-		for (int iter = 1; iter <= numIterations; iter++) {
+			SnapshotWriter snapshotWriter = new SnapshotWriter();
+			for (int iter = 1; iter <= numIterations; iter++) {
 
-			System.out.println("\tSampling iteration: " + (iter));
-			// System.out.println("\t\tPerplexity: " + computePerplexity());
+				System.out.println("\tSampling iteration: " + (iter));
+				// System.out.println("\t\tPerplexity: " + computePerplexity());
 
-			sampleInSingleIteration();
+				sampleInSingleIteration();
 
-			if ((savestep > 0) && (iter % savestep == 0)
-				&& (iter < numIterations)) {
-				System.out.println("\t\tSaving the output from the " + iter
-					+ "^{th} sample");
-				expName = orgExpName + "-" + iter;
-				write();
+				if ((savestep > 0) && (iter % savestep == 0)
+					&& (iter < numIterations)) {
+					System.out.println("\t\tSaving the output from the " + iter
+						+ "^{th} sample");
+					// Only copy the counts once the previous snapshot is
+					// written, so that at most one is held in memory
+					snapshotWriter.await();
+					snapshotWriter.submit(snapshot(orgExpName + "-" + iter));
+				}
 			}
-		}
-		expName = orgExpName;
+			snapshotWriter.close();
 
-		System.out.println("Writing output from the last sample ...");
-		write();
+			System.out.println("Writing output from the last sample ...");
+			write();
 
-		System.out.println("Sampling completed!");
+			System.out.println("Sampling completed!");
+		}
+		finally {
+			// Stop the fold-in threads, if any
+			if (pool != null)
+				pool.shutdown();
+			pool = null;
+		}
 
 	}
 
 	public void sampleInSingleIteration()
 	{
+		if (numThreads > 1) {
+			sampleInParallel();
+			return;
+		}
+
+		if (scorer == null) {
+			scorer = new DMMScorer(numTopics, alpha, beta, betaSum, random);
+			activeClusters = new ActiveClusters(numTopics);
+		}
+		activeClusters.rebuild(docTopicCount, sumTopicWordCount);
+
+		int[] bagOffsets = wordBags.offsets;
+		int[] bagWords = wordBags.words;
+		int[] bagCounts = wordBags.counts;
 		for (int dIndex = 0; dIndex < numDocuments; dIndex++) {
 			int topic = topicAssignments.get(dIndex);
-			List<Integer> document = corpus.get(dIndex);
-			int docSize = document.size();
+			int bagStart = bagOffsets[dIndex];
+			int bagEnd = bagOffsets[dIndex + 1];
+			int docSize = wordBags.lengths[dIndex];
 
 			// Decrease counts
 			docTopicCount[topic] -= 1;
-			for (int wIndex = 0; wIndex < docSize; wIndex++) {
-				int word = document.get(wIndex);
-				topicWordCount[topic][word] -= 1;
-				sumTopicWordCount[topic] -= 1;
-			}
+			for (int i = bagStart; i < bagEnd; i++)
+				topicWordCount[topic][bagWords[i]] -= bagCounts[i];
+			sumTopicWordCount[topic] -= docSize;
+			activeClusters.update(topic, docTopicCount, sumTopicWordCount);
 
 			// Sample a topic
-			for (int tIndex = 0; tIndex < numTopics; tIndex++) {
-				multiPros[tIndex] = (docTopicCount[tIndex] + alpha);
-				for (int wIndex = 0; wIndex < docSize; wIndex++) {
-					int word = document.get(wIndex);
-					multiPros[tIndex] *= (topicWordCount[tIndex][word] + beta
-						+ occurenceToIndexCount.get(dIndex).get(wIndex) - 1)
-						/ (sumTopicWordCount[tIndex] + betaSum + wIndex);
-				}
-			}
-			topic = FuncUtils.nextDiscrete(multiPros);
+			topic = scorer.sample(activeClusters, docTopicCount,
+				topicWordCount, sumTopicWordCount, bagWords, bagCounts,
+				bagStart, bagEnd, docSize);
 
 			// Increase counts
 			docTopicCount[topic] += 1;
-			for (int wIndex = 0; wIndex < docSize; wIndex++) {
-				int word = document.get(wIndex);
-				topicWordCount[topic][word] += 1;
-				sumTopicWordCount[topic] += 1;
-			}
+			for (int i = bagStart; i < bagEnd; i++)
+				topicWordCount[topic][bagWords[i]] += bagCounts[i];
+			sumTopicWordCount[topic] += docSize;
+			activeClusters.update(topic, docTopicCount, sumTopicWordCount);
 			// Update topic assignments
 			topicAssignments.set(dIndex, topic);
 		}
 	}
 
+	/**
+	 * Fold in all documents in parallel, against the read-only trained counts,
+	 * then bring docTopicCount and topicWordCount up to date with the new
+	 * topics
+	 */
+	private void sampleInParallel()
+	{
+		if (pool == null)
+			initializeParallel();
+
+		for (int dIndex = 0; dIndex < numDocuments; dIndex++)
+			previousTopics[dIndex] = topicAssignments.get(dIndex);
+		try {
+			for (Future<Void> future : pool.invokeAll(foldInChunks))
+				future.get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+		catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+
+		for (int dIndex = 0; dIndex < numDocuments; dIndex++) {
+			int oldTopic = previousTopics[dIndex];
+			int topic = topicAssignments.get(dIndex);
+			if (topic != oldTopic) {
+				docTopicCount[oldTopic] -= 1;
+				docTopicCount[topic] += 1;
+				for (int k = wordBags.offsets[dIndex]; k < wordBags.offsets[dIndex + 1]; k++) {
+					topicWordCount[oldTopic][wordBags.words[k]] -= wordBags.counts[k];
+					topicWordCount[topic][wordBags.words[k]] += wordBags.counts[k];
+				}
+				sumTopicWordCount[oldTopic] -= wordBags.lengths[dIndex];
+				sumTopicWordCount[topic] += wordBags.lengths[dIndex];
+			}
+		}
+	}
+
+	/**
+	 * Take the trained counts out of topicWordCount, and split the documents
+	 * into chunks, each with its own random stream so that runs with the same
+	 * seed and number of threads are reproducible
+	 */
+	private void initializeParallel()
+	{
+		trainedTopicWordCount = new int[numTopics][];
+		for (int tIndex = 0; tIndex < numTopics; tIndex++)
+			trainedTopicWordCount[tIndex] = topicWordCount[tIndex].clone();
+		trainedSumTopicWordCount = sumTopicWordCount.clone();
+		for (int dIndex = 0; dIndex < numDocuments; dIndex++) {
+			int topic = topicAssignments.get(dIndex);
+			for (int k = wordBags.offsets[dIndex]; k < wordBags.offsets[dIndex + 1]; k++)
+				trainedTopicWordCount[topic][wordBags.words[k]] -= wordBags.counts[k];
+			trainedSumTopicWordCount[topic] -= wordBags.lengths[dIndex];
+		}
+
+		int numChunks = Math.max(1, Math.min(numDocuments, 4 * numThreads));
+		foldInChunks = new ArrayList<Callable<Void>>();
+		int firstDoc = 0;
+		long words = 0;
+		for (int c = 1; c <= numChunks; c++) {
+			long target = (long) numWordsInCorpus * c / numChunks;
+			int lastDoc = firstDoc;
+			while (lastDoc < numDocuments && (c == numChunks || words < target))
+				words += wordBags.lengths[lastDoc++];
+			foldInChunks.add(new FoldInChunk(firstDoc, lastDoc));
+			firstDoc = lastDoc;
+		}
+		previousTopics = new int[numDocuments];
+		pool = new ForkJoinPool(numThreads);
+	}
+
+	/**
+	 * Documents firstDoc ... lastDoc - 1, with their own scorer and random
+	 * stream
+	 */
+	private class FoldInChunk
+		implements Callable<Void>
+	{
+		private int firstDoc;
+		private int lastDoc;
+		private DMMScorer scorer;
+		// Cluster sizes at the start of the iteration
+		private int[] clusterCounts;
+		// Clusters with documents or trained words
+		private ActiveClusters activeClusters;
+
+		FoldInChunk(int firstDoc, int lastDoc)
+		{
+			this.firstDoc = firstDoc;
+			this.lastDoc = lastDoc;
+			scorer = new DMMScorer(numTopics, alpha, beta, betaSum,
+				random.split());
+			clusterCounts = new int[numTopics];
+			activeClusters = new ActiveClusters(numTopics);
+		}
+
+		public Void call()
+		{
+			System.arraycopy(docTopicCount, 0, clusterCounts, 0, numTopics);
+			activeClusters.rebuild(clusterCounts, trainedSumTopicWordCount);
+			for (int dIndex = firstDoc; dIndex < lastDoc; dIndex++) {
+				int topic = topicAssignments.get(dIndex);
+
+				// Leave the document out of its cluster
+				clusterCounts[topic] -= 1;
+				activeClusters.update(topic, clusterCounts,
+					trainedSumTopicWordCount);
+				int newTopic = scorer.sample(activeClusters, clusterCounts,
+					trainedTopicWordCount, trainedSumTopicWordCount,
+					wordBags.words, wordBags.counts, wordBags.offsets[dIndex],
+					wordBags.offsets[dIndex + 1], wordBags.lengths[dIndex]);
+				clusterCounts[topic] += 1;
+				activeClusters.update(topic, clusterCounts,
+					trainedSumTopicWordCount);
+
+				topicAssignments.set(dIndex, newTopic);
+			}
+			return null;
+		}
+	}
+
 	public void writeParameters()
 		throws IOException
 	{
@@ -361,6 +555,9 @@ public class GibbsSamplingDMM_Inf
 			writer.write("\n-initFile" + "\t" + tAssignsFilePath);
 		if (savestep > 0)
 			writer.write("\n-sstep" + "\t" + savestep);
+		writer.write("\n-seed" + "\t" + seed);
+		if (!randomGenerator.equals("splittable"))
+			writer.write("\n-rng" + "\t" + randomGenerator);
 
 		writer.close();
 	}
@@ -381,9 +578,8 @@ public class GibbsSamplingDMM_Inf
 		BufferedWriter writer = new BufferedWriter(new FileWriter(folderPath
 			+ expName + ".IDcorpus"));
 		for (int dIndex = 0; dIndex < numDocuments; dIndex++) {
-			int docSize = corpus.get(dIndex).size();
-			for (int wIndex = 0; wIndex < docSize; wIndex++) {
-				writer.write(corpus.get(dIndex).get(wIndex) + " ");
+			for (int wIndex = docOffsets[dIndex]; wIndex < docOffsets[dIndex + 1]; wIndex++) {
+				writer.write(tokens[wIndex] + " ");
 			}
 			writer.write("\n");
 		}
@@ -396,7 +592,7 @@ public class GibbsSamplingDMM_Inf
 		BufferedWriter writer = new BufferedWriter(new FileWriter(folderPath
 			+ expName + ".topicAssignments"));
 		for (int dIndex = 0; dIndex < numDocuments; dIndex++) {
-			int docSize = corpus.get(dIndex).size();
+			int docSize = wordBags.lengths[dIndex];
 			int topic = topicAssignments.get(dIndex);
 			for (int wIndex = 0; wIndex < docSize; wIndex++) {
 				writer.write(topic + " ");
@@ -479,17 +675,18 @@ public class GibbsSamplingDMM_Inf
 			+ expName + ".theta"));
 
 		for (int i = 0; i < numDocuments; i++) {
-			int docSize = corpus.get(i).size();
-			double sum = 0.0;
+			int docSize = wordBags.lengths[i];
+			// In log space, as the product underflows for long documents
 			for (int tIndex = 0; tIndex < numTopics; tIndex++) {
-				multiPros[tIndex] = (docTopicCount[tIndex] + alpha);
-				for (int wIndex = 0; wIndex < docSize; wIndex++) {
-					int word = corpus.get(i).get(wIndex);
-					multiPros[tIndex] *= (topicWordCount[tIndex][word] + beta)
-						/ (sumTopicWordCount[tIndex] + betaSum);
+				multiPros[tIndex] = Math.log(docTopicCount[tIndex] + alpha)
+					- docSize * Math.log(sumTopicWordCount[tIndex] + betaSum);
+				for (int wIndex = docOffsets[i]; wIndex < docOffsets[i + 1]; wIndex++) {
+					int word = tokens[wIndex];
+					multiPros[tIndex] += Math.log(topicWordCount[tIndex][word]
+						+ beta);
 				}
-				sum += multiPros[tIndex];
 			}
+			double sum = FuncUtils.expShifted(multiPros);
 			for (int tIndex = 0; tIndex < numTopics; tIndex++) {
 				writer.write((multiPros[tIndex] / sum) + " ");
 			}
@@ -507,6 +704,41 @@ public class GibbsSamplingDMM_Inf
 		writeTopicWordPros();
 	}
 
+	/**
+	 * Snapshot of the current sample, to be written under the given
+	 * experiment name. The counts include the training corpus, so unlike in
+	 * training they are copied here rather than rebuilt from the topic
+	 * assignments; the outputs are still formatted and written in the
+	 * background.
+	 */
+	protected SnapshotWriter.Snapshot snapshot(String name)
+	{
+		final GibbsSamplingDMM_Inf snapshot = new GibbsSamplingDMM_Inf();
+		snapshot.alpha = alpha;
+		snapshot.beta = beta;
+		snapshot.alphaSum = alphaSum;
+		snapshot.betaSum = betaSum;
+		snapshot.numTopics = numTopics;
+		snapshot.topWords = topWords;
+		snapshot.expName = name;
+		snapshot.folderPath = folderPath;
+		snapshot.id2WordVocabulary = id2WordVocabulary;
+		snapshot.vocabularySize = vocabularySize;
+		snapshot.tokens = tokens;
+		snapshot.docOffsets = docOffsets;
+		snapshot.wordBags = wordBags;
+		snapshot.numDocuments = numDocuments;
+		snapshot.numWordsInCorpus = numWordsInCorpus;
+		snapshot.topicAssignments = new ArrayList<Integer>(topicAssignments);
+		snapshot.docTopicCount = docTopicCount.clone();
+		snapshot.topicWordCount = new int[numTopics][];
+		for (int tIndex = 0; tIndex < numTopics; tIndex++)
+			snapshot.topicWordCount[tIndex] = topicWordCount[tIndex].clone();
+		snapshot.sumTopicWordCount = sumTopicWordCount.clone();
+		snapshot.multiPros = new double[numTopics];
+		return () -> snapshot.write();
+	}
+
 	public static void main(String args[])
 		throws Exception
 	{
@@ -11,14 +11,17 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.PrintStream;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 
+import utility.Corpus;
 import utility.FuncUtils;
+import utility.SortedSparseCounts;
+import utility.TopicKernel;
+import utility.TopicWordCounts;
 
 /**
  * jLDADMM: A Java package for the LDA and DMM topic models
@@ -38,9 +41,14 @@ public class GibbsSamplingLDA extends JLDADMMModel
 	public double alphaSum; // alpha * numTopics
 	public double betaSum; // beta * vocabularySize
 
-	public List<List<Integer>> corpus; // Word ID-based corpus
-	public List<List<Integer>> topicAssignments; // Topics assignments for words
-													// in the corpus
+	// Word ID-based corpus, stored flat: the words of document d are
+	// tokens[docOffsets[d]] ... tokens[docOffsets[d + 1] - 1]
+	public int[] tokens;
+	// Topic assignments for words in the corpus, parallel to tokens
+	public int[] topics;
+	// Offset of the first word of every document in tokens and topics,
+	// followed by numWordsInCorpus (so there are numDocuments + 1 entries)
+	public int[] docOffsets;
 	public int numDocuments; // Number of documents in the corpus
 	public int numWordsInCorpus; // Number of words in the corpus
 
@@ -50,19 +58,45 @@ public class GibbsSamplingLDA extends JLDADMMModel
 														// given an ID
 	public int vocabularySize; // The number of word types in the corpus
 
-	// numDocuments * numTopics matrix
-	// Given a document: number of its words assigned to each topic
-	public int[][] docTopicCount;
+	// Sparse numDocuments * numTopics matrix
+	// Given a document: number of its words assigned to each topic, stored
+	// for the non-zero topics only
+	public SortedSparseCounts docTopicCount;
 	// Number of words in every document
 	public int[] sumDocTopicCount;
 	// numTopics * vocabularySize matrix
 	// Given a topic: number of times a word type assigned to the topic
-	public int[][] topicWordCount;
+	public TopicWordCounts topicWordCount;
 	// Total number of words assigned to a topic
 	public int[] sumTopicWordCount;
 
 	// Double array used to sample a topic
 	public double[] multiPros;
+	// Counts of the current document and word, used by the dense sampler
+	private int[] docCounts;
+	private int[] wordCounts;
+	// Topic scoring kernel of the dense sampler: "scalar" (default), "vector"
+	// or "vector32" (Java Vector API, in double or single precision)
+	public String kernel = "scalar";
+	protected TopicKernel kernelImpl;
+
+	// Sampling algorithm: "dense" (default), "sparse" (SparseLDA), "fplus"
+	// (F+LDA), "alias" (Metropolis-Hastings with alias tables) or "warp"
+	// (WarpLDA)
+	public String sampler = "dense";
+	// Implementation of any sampler other than the default dense one
+	protected LDASampler samplerImpl;
+	// Layout of topicWordCount: "dense" (default, topic by topic),
+	// "wordmajor" (word by word) or "packed" (non-zero counts only). Must be
+	// set before the model is initialized.
+	public String topicWordStorage = "dense";
+	// Number of threads sampling in parallel, with the dense sampler
+	public int numThreads = 1;
+	// Parallel sampling algorithm: "adlda" (default, AD-LDA, every thread
+	// samples its documents against a copy of topicWordCount), "blocks"
+	// (documents and word types split into blocks, rotated between threads)
+	// or "hogwild" (all threads update shared counts atomically)
+	public String parallel = "adlda";
 
 	public String orgExpName = "LDAmodel";
 
@@ -162,6 +196,8 @@ public class GibbsSamplingLDA extends JLDADMMModel
 		   tmp.delete();
 		}
 		
+		initializeRandom();
+
 		this.parametersWriter = parametersWriter;
 		this.dictionaryWriter = dictionaryWriter;		
 		this.topicAssignmentsWriter = topicAssignmentsWriter;
@@ -171,55 +207,26 @@ public class GibbsSamplingLDA extends JLDADMMModel
 
 		if (logStream != null) logStream.println("Reading topic modeling corpus...");
 
-		word2IdVocabulary = new HashMap<String, Integer>();
-		id2WordVocabulary = new HashMap<Integer, String>();
-		corpus = new ArrayList<List<Integer>>();
-		numDocuments = 0;
-		numWordsInCorpus = 0;
-
-		BufferedReader br = null;
-		try {
-			int indexWord = -1;
-			br = corpusReader;
-			for (String doc; (doc = br.readLine()) != null;) {
-
-				if (doc.trim().length() == 0)
-					continue;
-
-				String[] words = doc.trim().split("\\s+");
-				List<Integer> document = new ArrayList<Integer>();
-
-				for (String word : words) {
-					if (word2IdVocabulary.containsKey(word)) {
-						document.add(word2IdVocabulary.get(word));
-					}
-					else {
-						indexWord += 1;
-						word2IdVocabulary.put(word, indexWord);
-						id2WordVocabulary.put(indexWord, word);
-						document.add(indexWord);
-					}
-				}
-
-				numDocuments++;
-				numWordsInCorpus += document.size();
-				corpus.add(document);
-			}
-		}
-		catch (Exception e) {
-			e.printStackTrace();
-		}
-
-		vocabularySize = word2IdVocabulary.size(); // vocabularySize = indexWord
-		docTopicCount = new int[numDocuments][numTopics];
-		topicWordCount = new int[numTopics][vocabularySize];
+		Corpus corpus = sharedCorpus != null ? sharedCorpus : Corpus
+			.read(corpusReader);
+		word2IdVocabulary = corpus.word2IdVocabulary;
+		id2WordVocabulary = corpus.id2WordVocabulary;
+		tokens = corpus.tokens;
+		docOffsets = corpus.docOffsets;
+		numDocuments = corpus.numDocuments;
+		numWordsInCorpus = corpus.numWordsInCorpus;
+		topics = new int[numWordsInCorpus];
+
+		vocabularySize = corpus.vocabularySize;
+		createCounts();
 		sumDocTopicCount = new int[numDocuments];
-		sumTopicWordCount = new int[numTopics];
 
 		multiPros = new double[numTopics];
 		for (int i = 0; i < numTopics; i++) {
 			multiPros[i] = 1.0 / numTopics;
 		}
+		docCounts = new int[numTopics];
+		wordCounts = new int[numTopics];
 
 		alphaSum = numTopics * alpha;
 		betaSum = vocabularySize * beta;
@@ -239,6 +246,25 @@ public class GibbsSamplingLDA extends JLDADMMModel
 			initialize();
 	}
 
+	/**
+	 * Create docTopicCount, topicWordCount and sumTopicWordCount for the
+	 * corpus, all zero
+	 */
+	private void createCounts()
+	{
+		int[] docCapacities = new int[numDocuments];
+		for (int i = 0; i < numDocuments; i++)
+			docCapacities[i] = Math.min(numTopics, docOffsets[i + 1]
+				- docOffsets[i]);
+		docTopicCount = new SortedSparseCounts(docCapacities);
+		int[] wordFrequency = new int[vocabularySize];
+		for (int i = 0; i < numWordsInCorpus; i++)
+			wordFrequency[tokens[i]]++;
+		topicWordCount = TopicWordCounts.create(topicWordStorage, numTopics,
+			wordFrequency);
+		sumTopicWordCount = new int[numTopics];
+	}
+
 	/**
 	 * Randomly initialize topic assignments
 	 */
@@ -247,22 +273,17 @@ public class GibbsSamplingLDA extends JLDADMMModel
 	{
 		if (logStream != null) logStream.println("Randomly initializing topic assignments ...");
 
-		topicAssignments = new ArrayList<List<Integer>>();
-
 		for (int i = 0; i < numDocuments; i++) {
-			List<Integer> topics = new ArrayList<Integer>();
-			int docSize = corpus.get(i).size();
-			for (int j = 0; j < docSize; j++) {
-				int topic = FuncUtils.nextDiscrete(multiPros); // Sample a topic
+			for (int j = docOffsets[i]; j < docOffsets[i + 1]; j++) {
+				int topic = FuncUtils.nextDiscrete(multiPros, random); // Sample a topic
 				// Increase counts
-				docTopicCount[i][topic] += 1;
-				topicWordCount[topic][corpus.get(i).get(j)] += 1;
+				docTopicCount.add(i, topic, 1);
+				topicWordCount.add(topic, tokens[j], 1);
 				sumDocTopicCount[i] += 1;
 				sumTopicWordCount[topic] += 1;
 
-				topics.add(topic);
+				topics[j] = topic;
 			}
-			topicAssignments.add(topics);
 		}
 	}
 
@@ -273,8 +294,6 @@ public class GibbsSamplingLDA extends JLDADMMModel
 	{
 		if (logStream != null) logStream.println("Reading topic-assignment file...");
 
-		topicAssignments = new ArrayList<List<Integer>>();
-
 		BufferedReader br = null;
 		try {
 			br = topicAssignmentReader;
@@ -282,19 +301,24 @@ public class GibbsSamplingLDA extends JLDADMMModel
 			int numWords = 0;
 			for (String line; (line = br.readLine()) != null;) {
 				String[] strTopics = line.trim().split("\\s+");
-				List<Integer> topics = new ArrayList<Integer>();
+				if (docID >= numDocuments
+					|| strTopics.length != docOffsets[docID + 1] - docOffsets[docID]) {
+					if (logStream != null) logStream
+						.println("The topic modeling corpus and topic assignment file are not consistent!!!");
+					throw new Exception();
+				}
 				for (int j = 0; j < strTopics.length; j++) {
 					int topic = new Integer(strTopics[j]);
+					int position = docOffsets[docID] + j;
 					// Increase counts
-					docTopicCount[docID][topic] += 1;
-					topicWordCount[topic][corpus.get(docID).get(j)] += 1;
+					docTopicCount.add(docID, topic, 1);
+					topicWordCount.add(topic, tokens[position], 1);
 					sumDocTopicCount[docID] += 1;
 					sumTopicWordCount[topic] += 1;
 
-					topics.add(topic);
+					topics[position] = topic;
 					numWords++;
 				}
-				topicAssignments.add(topics);
 				docID++;
 			}
 
@@ -315,69 +339,144 @@ public class GibbsSamplingLDA extends JLDADMMModel
 		writeParameters();
 		writeDictionary();
 
-		if (logStream != null) logStream.println("Running Gibbs sampling inference: ");
-
-		for (int iter = 1; iter <= numIterations; iter++) {
-
-			if (logStream != null) logStream.println("\tSampling iteration: " + (iter));
-			// if (logStream != null) logStream.println("\t\tPerplexity: " + computePerplexity());
+		samplerImpl = LDASampler.forName(sampler, this);
+		try {
+			if (numThreads > 1 && !sampler.equals("dense") && logStream != null)
+				logStream.println("The " + sampler
+					+ " sampler runs in a single thread");
+
+			if (logStream != null) logStream.println("Running Gibbs sampling inference: ");
+
+			SnapshotWriter snapshotWriter = new SnapshotWriter();
+			for (int iter = 1; iter <= numIterations; iter++) {
+
+				if (logStream != null) logStream.println("\tSampling iteration: " + (iter));
+				// if (logStream != null) logStream.println("\t\tPerplexity: " + computePerplexity());
+
+				long startTime = System.nanoTime();
+				sampleInSingleIteration();
+				if (logStream != null) logStream.println("\t\tWords per second: "
+					+ Math.round(numWordsInCorpus / ((System.nanoTime() - startTime) / 1e9)));
+
+				if ((savestep > 0) && (iter % savestep == 0)
+					&& (iter < numIterations)) {
+					if (logStream != null) logStream.println("\t\tSaving the output from the " + iter
+						+ "^{th} sample");
+					// Only copy the topic assignments once the previous snapshot
+					// is written, so that at most one is held in memory
+					snapshotWriter.await();
+					snapshotWriter.submit(snapshot(orgExpName + "-" + iter));
+				}
+			}
+			snapshotWriter.close();
 
-			sampleInSingleIteration();
+			if (logStream != null) logStream.println("Writing output from the last sample ...");
+			write();
 
-			if ((savestep > 0) && (iter % savestep == 0)
-				&& (iter < numIterations)) {
-				if (logStream != null) logStream.println("\t\tSaving the output from the " + iter
-					+ "^{th} sample");
-				expName = orgExpName + "-" + iter;
-				write();
-			}
+			if (logStream != null) logStream.println("Sampling completed!");
+		}
+		finally {
+			closeSampler();
 		}
-		expName = orgExpName;
-
-		if (logStream != null) logStream.println("Writing output from the last sample ...");
-		write();
 
-		if (logStream != null) logStream.println("Sampling completed!");
+	}
 
+	/**
+	 * Stop the threads of the sampler, if any. The next call to
+	 * sampleInSingleIteration creates the sampler again.
+	 */
+	public void closeSampler()
+	{
+		if (samplerImpl != null)
+			samplerImpl.close();
+		samplerImpl = null;
 	}
 
 	public void sampleInSingleIteration()
 	{
-		for (int dIndex = 0; dIndex < numDocuments; dIndex++) {
-			int docSize = corpus.get(dIndex).size();
-			for (int wIndex = 0; wIndex < docSize; wIndex++) {
+		if (!sampler.equals("dense") || numThreads > 1) {
+			if (samplerImpl == null)
+				samplerImpl = LDASampler.forName(sampler, this);
+			samplerImpl.sampleInSingleIteration();
+			return;
+		}
+
+		if (kernelImpl == null)
+			kernelImpl = TopicKernel.create(kernel, numTopics, random, logStream);
+		sampleDocuments(0, numDocuments, topicWordCount, sumTopicWordCount,
+			kernelImpl, docCounts, wordCounts);
+	}
+
+	/**
+	 * Resample the topics of the words of documents firstDoc ... lastDoc - 1
+	 * with the dense sampler, against the given topic-word counts and topic
+	 * totals, using the given kernel and scratch arrays of numTopics counts
+	 */
+	protected void sampleDocuments(int firstDoc, int lastDoc,
+		TopicWordCounts topicWordCount, int[] sumTopicWordCount,
+		TopicKernel kernel, int[] docCounts, int[] wordCounts)
+	{
+		for (int tIndex = 0; tIndex < numTopics; tIndex++)
+			kernel.setDenominator(tIndex, sumTopicWordCount[tIndex] + betaSum);
+
+		for (int dIndex = firstDoc; dIndex < lastDoc; dIndex++) {
+			docTopicCount.getRow(dIndex, docCounts);
+			for (int wIndex = docOffsets[dIndex]; wIndex < docOffsets[dIndex + 1]; wIndex++) {
 				// Get current word and its topic
-				int topic = topicAssignments.get(dIndex).get(wIndex);
-				int word = corpus.get(dIndex).get(wIndex);
+				int topic = topics[wIndex];
+				int word = tokens[wIndex];
 
 				// Decrease counts
-				docTopicCount[dIndex][topic] -= 1;
+				docCounts[topic] -= 1;
 				// docTopicSum[dIndex] -= 1;
-				topicWordCount[topic][word] -= 1;
+				topicWordCount.add(topic, word, -1);
 				sumTopicWordCount[topic] -= 1;
+				kernel.setDenominator(topic, sumTopicWordCount[topic] + betaSum);
 
 				// Sample a topic
-				for (int tIndex = 0; tIndex < numTopics; tIndex++) {
-					multiPros[tIndex] = (docTopicCount[dIndex][tIndex] + alpha)
-						* ((topicWordCount[tIndex][word] + beta) / (sumTopicWordCount[tIndex] + betaSum));
-					// multiPros[tIndex] = ((docTopicCount[dIndex][tIndex] +
-					// alpha) /
-					// (docTopicSum[dIndex] + alphaSum))
-					// * ((topicWordCount[tIndex][word] + beta) /
-					// (topicWordSum[tIndex] + betaSum));
-				}
-				topic = FuncUtils.nextDiscrete(multiPros);
+				topicWordCount.getWord(word, wordCounts);
+				topic = kernel.sampleLDA(docCounts, wordCounts, alpha, beta);
 
 				// Increase counts
-				docTopicCount[dIndex][topic] += 1;
+				docCounts[topic] += 1;
 				// docTopicSum[dIndex] += 1;
-				topicWordCount[topic][word] += 1;
+				topicWordCount.add(topic, word, 1);
 				sumTopicWordCount[topic] += 1;
+				kernel.setDenominator(topic, sumTopicWordCount[topic] + betaSum);
 
 				// Update topic assignments
-				topicAssignments.get(dIndex).set(wIndex, topic);
+				topics[wIndex] = topic;
+			}
+			docTopicCount.setRow(dIndex, docCounts, topics, docOffsets[dIndex],
+				docOffsets[dIndex + 1]);
+		}
+	}
+
+	/**
+	 * Log-likelihood of the corpus per word under the current estimates of
+	 * theta and phi, i.e. the average over all words of log sum_t theta_dt *
+	 * phi_tw
+	 */
+	public double computeLogLikelihood()
+	{
+		int[] docCounts = new int[numTopics];
+		int[] wordCounts = new int[numTopics];
+		double logLikelihood = 0.0;
+		for (int dIndex = 0; dIndex < numDocuments; dIndex++) {
+			Arrays.fill(docCounts, 0);
+			docTopicCount.getRow(dIndex, docCounts);
+			double docSum = docOffsets[dIndex + 1] - docOffsets[dIndex] + alphaSum;
+			for (int wIndex = docOffsets[dIndex]; wIndex < docOffsets[dIndex + 1]; wIndex++) {
+				topicWordCount.getWord(tokens[wIndex], wordCounts);
+				double likelihood = 0.0;
+				for (int tIndex = 0; tIndex < numTopics; tIndex++)
+					likelihood += (docCounts[tIndex] + alpha) / docSum
+						* (wordCounts[tIndex] + beta)
+						/ (sumTopicWordCount[tIndex] + betaSum);
+				logLikelihood += Math.log(likelihood);
 			}
 		}
+		return logLikelihood / numWordsInCorpus;
 	}
 
 	public void writeParameters()
@@ -396,6 +495,19 @@ public class GibbsSamplingLDA extends JLDADMMModel
 			writer.write("\n-initFile" + "\t" + tAssignsFilePath);
 		if (savestep > 0)
 			writer.write("\n-sstep" + "\t" + savestep);
+		writer.write("\n-seed" + "\t" + seed);
+		if (!randomGenerator.equals("splittable"))
+			writer.write("\n-rng" + "\t" + randomGenerator);
+		if (!sampler.equals("dense"))
+			writer.write("\n-sampler" + "\t" + sampler);
+		if (numThreads > 1)
+			writer.write("\n-threads" + "\t" + numThreads);
+		if (numThreads > 1 && !parallel.equals("adlda"))
+			writer.write("\n-parallel" + "\t" + parallel);
+		if (!kernel.equals("scalar"))
+			writer.write("\n-kernel" + "\t" + kernel);
+		if (!topicWordStorage.equals("dense"))
+			writer.write("\n-twstorage" + "\t" + topicWordStorage);
 
 		writer.close();
 	}
@@ -415,9 +527,8 @@ public class GibbsSamplingLDA extends JLDADMMModel
 		BufferedWriter writer
 		   = new BufferedWriter(new FileWriter(new File(folderPath, expName + ".IDcorpus")));
 		for (int dIndex = 0; dIndex < numDocuments; dIndex++) {
-			int docSize = corpus.get(dIndex).size();
-			for (int wIndex = 0; wIndex < docSize; wIndex++) {
-				writer.write(corpus.get(dIndex).get(wIndex) + " ");
+			for (int wIndex = docOffsets[dIndex]; wIndex < docOffsets[dIndex + 1]; wIndex++) {
+				writer.write(tokens[wIndex] + " ");
 			}
 			writer.write("\n");
 		}
@@ -429,9 +540,8 @@ public class GibbsSamplingLDA extends JLDADMMModel
 	{
 		BufferedWriter writer = topicAssignmentsWriter;
 		for (int dIndex = 0; dIndex < numDocuments; dIndex++) {
-			int docSize = corpus.get(dIndex).size();
-			for (int wIndex = 0; wIndex < docSize; wIndex++) {
-				writer.write(topicAssignments.get(dIndex).get(wIndex) + " ");
+			for (int wIndex = docOffsets[dIndex]; wIndex < docOffsets[dIndex + 1]; wIndex++) {
+				writer.write(topics[wIndex] + " ");
 			}
 			writer.write("\n");
 		}
@@ -443,12 +553,14 @@ public class GibbsSamplingLDA extends JLDADMMModel
 	{
 		BufferedWriter writer = topTopicalWordsWriter;
 
+		int[] topicCounts = new int[vocabularySize];
 		for (int tIndex = 0; tIndex < numTopics; tIndex++) {
 			writer.write("Topic" + new Integer(tIndex) + ":");
 
+			topicWordCount.getTopic(tIndex, topicCounts);
 			Map<Integer, Integer> wordCount = new TreeMap<Integer, Integer>();
 			for (int wIndex = 0; wIndex < vocabularySize; wIndex++) {
-				wordCount.put(wIndex, topicWordCount[tIndex][wIndex]);
+				wordCount.put(wIndex, topicCounts[wIndex]);
 			}
 			wordCount = FuncUtils.sortByValueDescending(wordCount);
 
@@ -456,7 +568,7 @@ public class GibbsSamplingLDA extends JLDADMMModel
 			int count = 0;
 			for (Integer index : mostLikelyWords) {
 				if (count < topWords) {
-					double pro = (topicWordCount[tIndex][index] + beta)
+					double pro = (topicCounts[index] + beta)
 						/ (sumTopicWordCount[tIndex] + betaSum);
 					pro = Math.round(pro * 1000000.0) / 1000000.0;
 					writer.write(" " + id2WordVocabulary.get(index) + "(" + pro
@@ -476,9 +588,11 @@ public class GibbsSamplingLDA extends JLDADMMModel
 		throws IOException
 	{
 		BufferedWriter writer = topicWordProsWriter;
+		int[] topicCounts = new int[vocabularySize];
 		for (int i = 0; i < numTopics; i++) {
+			topicWordCount.getTopic(i, topicCounts);
 			for (int j = 0; j < vocabularySize; j++) {
-				double pro = (topicWordCount[i][j] + beta)
+				double pro = (topicCounts[j] + beta)
 					/ (sumTopicWordCount[i] + betaSum);
 				writer.write(pro + " ");
 			}
@@ -492,9 +606,11 @@ public class GibbsSamplingLDA extends JLDADMMModel
 	{
 		BufferedWriter writer = new BufferedWriter(
 		   new FileWriter(new File(folderPath, expName + ".WTcount")));
+		int[] topicCounts = new int[vocabularySize];
 		for (int i = 0; i < numTopics; i++) {
+			topicWordCount.getTopic(i, topicCounts);
 			for (int j = 0; j < vocabularySize; j++) {
-				writer.write(topicWordCount[i][j] + " ");
+				writer.write(topicCounts[j] + " ");
 			}
 			writer.write("\n");
 		}
@@ -506,13 +622,16 @@ public class GibbsSamplingLDA extends JLDADMMModel
 		throws IOException
 	{
 		BufferedWriter writer = docTopicProsWriter;
+		int[] docCounts = new int[numTopics];
 		for (int i = 0; i < numDocuments; i++) {
+			docTopicCount.getRow(i, docCounts);
 			for (int j = 0; j < numTopics; j++) {
-				double pro = (docTopicCount[i][j] + alpha)
+				double pro = (docCounts[j] + alpha)
 					/ (sumDocTopicCount[i] + alphaSum);
 				writer.write(pro + " ");
 			}
 			writer.write("\n");
+			Arrays.fill(docCounts, 0);
 		}
 		writer.close();
 	}
@@ -522,11 +641,14 @@ public class GibbsSamplingLDA extends JLDADMMModel
 	{
 		BufferedWriter writer = new BufferedWriter(
 		   new FileWriter(new File(folderPath, expName + ".DTcount")));
+		int[] docCounts = new int[numTopics];
 		for (int i = 0; i < numDocuments; i++) {
+			docTopicCount.getRow(i, docCounts);
 			for (int j = 0; j < numTopics; j++) {
-				writer.write(docTopicCount[i][j] + " ");
+				writer.write(docCounts[j] + " ");
 			}
 			writer.write("\n");
+			Arrays.fill(docCounts, 0);
 		}
 		writer.close();
 	}
@@ -540,6 +662,51 @@ public class GibbsSamplingLDA extends JLDADMMModel
 		writeTopicWordPros();
 	}
 
+	/**
+	 * Snapshot of the current sample, to be written under the given
+	 * experiment name. Only the topic assignments are copied here; the counts
+	 * are rebuilt from them when the snapshot is written.
+	 */
+	protected SnapshotWriter.Snapshot snapshot(String name)
+	{
+		final GibbsSamplingLDA snapshot = new GibbsSamplingLDA();
+		snapshot.alpha = alpha;
+		snapshot.beta = beta;
+		snapshot.alphaSum = alphaSum;
+		snapshot.betaSum = betaSum;
+		snapshot.numTopics = numTopics;
+		snapshot.topWords = topWords;
+		snapshot.expName = name;
+		snapshot.folderPath = folderPath;
+		snapshot.topicWordStorage = topicWordStorage;
+		snapshot.id2WordVocabulary = id2WordVocabulary;
+		snapshot.vocabularySize = vocabularySize;
+		snapshot.tokens = tokens;
+		snapshot.docOffsets = docOffsets;
+		snapshot.numDocuments = numDocuments;
+		snapshot.numWordsInCorpus = numWordsInCorpus;
+		snapshot.sumDocTopicCount = sumDocTopicCount;
+		snapshot.topics = topics.clone();
+		return () -> {
+			snapshot.createCounts();
+			for (int dIndex = 0; dIndex < snapshot.numDocuments; dIndex++) {
+				for (int wIndex = snapshot.docOffsets[dIndex]; wIndex < snapshot.docOffsets[dIndex + 1]; wIndex++) {
+					int topic = snapshot.topics[wIndex];
+					snapshot.docTopicCount.add(dIndex, topic, 1);
+					snapshot.topicWordCount.add(topic, snapshot.tokens[wIndex], 1);
+					snapshot.sumTopicWordCount[topic] += 1;
+				}
+			}
+			snapshot.topTopicalWordsWriter = snapshot.outputWriter(name,
+				".topWords");
+			snapshot.docTopicProsWriter = snapshot.outputWriter(name, ".theta");
+			snapshot.topicAssignmentsWriter = snapshot.outputWriter(name,
+				".topicAssignments");
+			snapshot.topicWordProsWriter = snapshot.outputWriter(name, ".phi");
+			snapshot.write();
+		};
+	}
+
 	public static void main(String args[])
 		throws Exception
 	{
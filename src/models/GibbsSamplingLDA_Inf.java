@@ -6,13 +6,22 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import utility.FuncUtils;
+import utility.RandomStream;
+import utility.SortedSparseCounts;
+import utility.TopicKernel;
+import utility.TopicWordCounts;
 
 /**
  * jLDADMM: A Java package for the LDA and DMM topic models
@@ -34,9 +43,14 @@ public class GibbsSamplingLDA_Inf
 	public double alphaSum; // alpha * numTopics
 	public double betaSum; // beta * vocabularySize
 
-	public List<List<Integer>> corpus; // Word ID-based corpus
-	public List<List<Integer>> topicAssignments; // Topics assignments for words
-													// in the corpus
+	// Word ID-based corpus, stored flat: the words of document d are
+	// tokens[docOffsets[d]] ... tokens[docOffsets[d + 1] - 1]
+	public int[] tokens;
+	// Topic assignments for words in the corpus, parallel to tokens
+	public int[] topics;
+	// Offset of the first word of every document in tokens and topics,
+	// followed by numWordsInCorpus (so there are numDocuments + 1 entries)
+	public int[] docOffsets;
 	public int numDocuments; // Number of documents in the corpus
 	public int numWordsInCorpus; // Number of words in the corpus
 
@@ -46,35 +60,94 @@ public class GibbsSamplingLDA_Inf
 														// given an ID
 	public int vocabularySize; // The number of word types in the corpus
 
-	// numDocuments * numTopics matrix
-	// Given a document: number of its words assigned to each topic
-	public int[][] docTopicCount;
+	// Sparse numDocuments * numTopics matrix
+	// Given a document: number of its words assigned to each topic, stored
+	// for the non-zero topics only
+	public SortedSparseCounts docTopicCount;
 	// Number of words in every document
 	public int[] sumDocTopicCount;
 	// numTopics * vocabularySize matrix
 	// Given a topic: number of times a word type assigned to the topic
-	public int[][] topicWordCount;
+	public TopicWordCounts topicWordCount;
 	// Total number of words assigned to a topic
 	public int[] sumTopicWordCount;
 
 	// Double array used to sample a topic
 	public double[] multiPros;
+	// Counts of the current document and word, used by the dense sampler
+	private int[] docCounts;
+	private int[] wordCounts;
+	// Topic scoring kernel of the dense sampler: "scalar" (default), "vector"
+	// or "vector32" (Java Vector API, in double or single precision)
+	public String kernel = "scalar";
+	protected TopicKernel kernelImpl;
+
+	// Number of threads folding in the unseen documents. With more than one,
+	// every document is sampled against the trained counts only, which are
+	// read-only, plus its own words, so documents are independent of each
+	// other within an iteration.
+	public int numThreads = 1;
+	// topicWordCount and sumTopicWordCount without the unseen corpus
+	private TopicWordCounts trainedTopicWordCount;
+	private int[] trainedSumTopicWordCount;
+	// Chunks of documents with the same number of words, sampled in parallel
+	private List<Callable<Void>> foldInChunks;
+	private ForkJoinPool pool;
+	// Topic assignments at the start of the iteration
+	private int[] previousTopics;
 
 	// Path to the directory containing the corpus
 	public String folderPath;
 	// Path to the topic modeling corpus
 	public String corpusPath;
 
+	// Layout of topicWordCount, as used to train the model
+	public String topicWordStorage = "dense";
+	// Number of occurrences of every word type in the training and unseen
+	// corpora, which topicWordCount is created with
+	private int[] wordFrequency;
+	// Training corpus and its topic assignments, while topicWordCount is
+	// being set up
+	private int[] trainTokens;
+	private int[] trainTopics;
+
 	public String expName = "LDAinf";
 	public String orgExpName = "LDAinf";
 	public String tAssignsFilePath = "";
 	public int savestep = 0;
 
+	// Seed of the random number generator (0 picks one from the clock), and
+	// the generator: "splittable" (default) or "mt" (Mersenne Twister)
+	public long seed = 0;
+	public String randomGenerator = "splittable";
+	protected RandomStream random;
+
+	/**
+	 * Empty model, filled in by snapshot()
+	 */
+	private GibbsSamplingLDA_Inf()
+	{
+	}
+
 	public GibbsSamplingLDA_Inf(String pathToTrainingParasFile,
 		String pathToUnseenCorpus, int inNumIterations, int inTopWords,
 		String inExpName, int inSaveStep)
 		throws Exception
 	{
+		this(pathToTrainingParasFile, pathToUnseenCorpus, inNumIterations,
+			inTopWords, inExpName, inSaveStep, 0, "splittable");
+	}
+
+	public GibbsSamplingLDA_Inf(String pathToTrainingParasFile,
+		String pathToUnseenCorpus, int inNumIterations, int inTopWords,
+		String inExpName, int inSaveStep, long inSeed,
+		String inRandomGenerator)
+		throws Exception
+	{
+		seed = inSeed != 0 ? inSeed : RandomStream.newSeed();
+		randomGenerator = inRandomGenerator;
+		random = RandomStream.create(randomGenerator, seed);
+
 		HashMap<String, String> paras = parseTrainingParasFile(pathToTrainingParasFile);
 		if (!paras.get("-model").equals("LDA")) {
 			throw new Exception("Wrong pre-trained model!!!");
@@ -82,6 +155,8 @@ public class GibbsSamplingLDA_Inf
 		alpha = new Double(paras.get("-alpha"));
 		beta = new Double(paras.get("-beta"));
 		numTopics = new Integer(paras.get("-ntopics"));
+		if (paras.containsKey("-twstorage"))
+			topicWordStorage = paras.get("-twstorage");
 
 		numIterations = inNumIterations;
 		topWords = inTopWords;
@@ -107,7 +182,8 @@ public class GibbsSamplingLDA_Inf
 			Math.max(pathToUnseenCorpus.lastIndexOf("/"),
 				pathToUnseenCorpus.lastIndexOf("\\")) + 1);
 		System.out.println("Reading unseen corpus: " + pathToUnseenCorpus);
-		corpus = new ArrayList<List<Integer>>();
+		tokens = new int[1024];
+		docOffsets = new int[256];
 		numDocuments = 0;
 		numWordsInCorpus = 0;
 
@@ -120,32 +196,61 @@ public class GibbsSamplingLDA_Inf
 					continue;
 
 				String[] words = doc.trim().split("\\s+");
-				List<Integer> document = new ArrayList<Integer>();
+				if (numWordsInCorpus + words.length > tokens.length)
+					tokens = Arrays.copyOf(tokens, Math.max(2 * tokens.length,
+						numWordsInCorpus + words.length));
+				if (numDocuments + 2 > docOffsets.length)
+					docOffsets = Arrays.copyOf(docOffsets, 2 * docOffsets.length);
 
+				docOffsets[numDocuments] = numWordsInCorpus;
 				for (String word : words) {
-					if (word2IdVocabulary.containsKey(word)) {
-						document.add(word2IdVocabulary.get(word));
+					Integer id = word2IdVocabulary.get(word);
+					if (id != null) {
+						tokens[numWordsInCorpus++] = id;
 					}
 					else {
 						// Skip this unknown-word
 					}
 				}
 				numDocuments++;
-				numWordsInCorpus += document.size();
-				corpus.add(document);
 			}
 		}
 		catch (Exception e) {
 			e.printStackTrace();
 			return;
 		}
-
-		docTopicCount = new int[numDocuments][numTopics];
+		docOffsets[numDocuments] = numWordsInCorpus;
+		docOffsets = Arrays.copyOf(docOffsets, numDocuments + 1);
+		tokens = Arrays.copyOf(tokens, numWordsInCorpus);
+		topics = new int[numWordsInCorpus];
+
+		// Counts of the training corpus, with room for the unseen corpus
+		wordFrequency = new int[vocabularySize];
+		for (int i = 0; i < trainTokens.length; i++)
+			wordFrequency[trainTokens[i]]++;
+		for (int i = 0; i < numWordsInCorpus; i++)
+			wordFrequency[tokens[i]]++;
+		topicWordCount = TopicWordCounts.create(topicWordStorage, numTopics,
+			wordFrequency);
+		for (int i = 0; i < trainTokens.length; i++) {
+			if (trainTopics[i] >= 0)
+				topicWordCount.add(trainTopics[i], trainTokens[i], 1);
+		}
+		trainTokens = null;
+		trainTopics = null;
+
+		int[] docCapacities = new int[numDocuments];
+		for (int i = 0; i < numDocuments; i++)
+			docCapacities[i] = Math.min(numTopics, docOffsets[i + 1]
+				- docOffsets[i]);
+		docTopicCount = new SortedSparseCounts(docCapacities);
 		sumDocTopicCount = new int[numDocuments];
 		multiPros = new double[numTopics];
 		for (int i = 0; i < numTopics; i++) {
 			multiPros[i] = 1.0 / numTopics;
 		}
+		docCounts = new int[numTopics];
+		wordCounts = new int[numTopics];
 
 		alphaSum = numTopics * alpha;
 		betaSum = vocabularySize * beta;
@@ -189,7 +294,11 @@ public class GibbsSamplingLDA_Inf
 		String pathToTopicAssignmentFile)
 	{
 		System.out.println("Loading pre-trained model...");
-		List<List<Integer>> trainCorpus = new ArrayList<List<Integer>>();
+		// Training corpus, in the same flat layout as tokens/docOffsets
+		trainTokens = new int[1024];
+		int[] trainDocOffsets = new int[256];
+		int numTrainDocuments = 0;
+		int numTrainWords = 0;
 		BufferedReader br = null;
 		try {
 			int indexWord = -1;
@@ -200,28 +309,36 @@ public class GibbsSamplingLDA_Inf
 					continue;
 
 				String[] words = doc.trim().split("\\s+");
-				List<Integer> document = new ArrayList<Integer>();
-
+				if (numTrainWords + words.length > trainTokens.length)
+					trainTokens = Arrays.copyOf(trainTokens, Math.max(
+						2 * trainTokens.length, numTrainWords + words.length));
+				if (numTrainDocuments + 2 > trainDocOffsets.length)
+					trainDocOffsets = Arrays.copyOf(trainDocOffsets,
+						2 * trainDocOffsets.length);
+
+				trainDocOffsets[numTrainDocuments] = numTrainWords;
 				for (String word : words) {
-					if (word2IdVocabulary.containsKey(word)) {
-						document.add(word2IdVocabulary.get(word));
-					}
-					else {
+					Integer id = word2IdVocabulary.get(word);
+					if (id == null) {
 						indexWord += 1;
-						word2IdVocabulary.put(word, indexWord);
-						id2WordVocabulary.put(indexWord, word);
-						document.add(indexWord);
+						id = indexWord;
+						word2IdVocabulary.put(word, id);
+						id2WordVocabulary.put(id, word);
 					}
+					trainTokens[numTrainWords++] = id;
 				}
-				trainCorpus.add(document);
+				numTrainDocuments++;
 			}
 		}
 		catch (Exception e) {
 			e.printStackTrace();
 		}
+		trainDocOffsets[numTrainDocuments] = numTrainWords;
+		trainTokens = Arrays.copyOf(trainTokens, numTrainWords);
+		trainTopics = new int[numTrainWords];
+		Arrays.fill(trainTopics, -1);
 
 		vocabularySize = word2IdVocabulary.size();
-		topicWordCount = new int[numTopics][vocabularySize];
 		sumTopicWordCount = new int[numTopics];
 
 		try {
@@ -229,10 +346,16 @@ public class GibbsSamplingLDA_Inf
 			int docId = 0;
 			for (String line; (line = br.readLine()) != null;) {
 				String[] strTopics = line.trim().split("\\s+");
+				if (docId >= numTrainDocuments
+					|| strTopics.length != trainDocOffsets[docId + 1]
+						- trainDocOffsets[docId]) {
+					System.out
+						.println("The training corpus and topic assignment file are not consistent!!!");
+					throw new Exception();
+				}
 				for (int j = 0; j < strTopics.length; j++) {
-					int wordId = trainCorpus.get(docId).get(j);
 					int topic = new Integer(strTopics[j]);
-					topicWordCount[topic][wordId] += 1;
+					trainTopics[trainDocOffsets[docId] + j] = topic;
 					sumTopicWordCount[topic] += 1;
 				}
 				docId++;
@@ -251,22 +374,17 @@ public class GibbsSamplingLDA_Inf
 	{
 		System.out.println("Randomly initializing topic assignments ...");
 
-		topicAssignments = new ArrayList<List<Integer>>();
-
 		for (int i = 0; i < numDocuments; i++) {
-			List<Integer> topics = new ArrayList<Integer>();
-			int docSize = corpus.get(i).size();
-			for (int j = 0; j < docSize; j++) {
-				int topic = FuncUtils.nextDiscrete(multiPros); // Sample a topic
+			for (int j = docOffsets[i]; j < docOffsets[i + 1]; j++) {
+				int topic = FuncUtils.nextDiscrete(multiPros, random); // Sample a topic
 				// Increase counts
-				docTopicCount[i][topic] += 1;
-				topicWordCount[topic][corpus.get(i).get(j)] += 1;
+				docTopicCount.add(i, topic, 1);
+				topicWordCount.add(topic, tokens[j], 1);
 				sumDocTopicCount[i] += 1;
 				sumTopicWordCount[topic] += 1;
 
-				topics.add(topic);
+				topics[j] = topic;
 			}
-			topicAssignments.add(topics);
 		}
 	}
 
@@ -276,67 +394,248 @@ public class GibbsSamplingLDA_Inf
 		writeParameters();
 		writeDictionary();
 
-		System.out.println("Running Gibbs sampling inference: ");
+		try {
+			System.out.println("Running Gibbs sampling inference: ");
 
-		for (int iter = 1; iter <= numIterations; iter++) {
+			SnapshotWriter snapshotWriter = new SnapshotWriter();
+			for (int iter = 1; iter <= numIterations; iter++) {
 
-			System.out.println("\tSampling iteration: " + (iter));
-			// System.out.println("\t\tPerplexity: " + computePerplexity());
+				System.out.println("\tSampling iteration: " + (iter));
+				// System.out.println("\t\tPerplexity: " + computePerplexity());
 
-			sampleInSingleIteration();
+				sampleInSingleIteration();
 
-			if ((savestep > 0) && (iter % savestep == 0)
-				&& (iter < numIterations)) {
-				System.out.println("\t\tSaving the output from the " + iter
-					+ "^{th} sample");
-				expName = orgExpName + "-" + iter;
-				write();
+				if ((savestep > 0) && (iter % savestep == 0)
+					&& (iter < numIterations)) {
+					System.out.println("\t\tSaving the output from the " + iter
+						+ "^{th} sample");
+					// Only copy the counts once the previous snapshot is
+					// written, so that at most one is held in memory
+					snapshotWriter.await();
+					snapshotWriter.submit(snapshot(orgExpName + "-" + iter));
+				}
 			}
-		}
-		expName = orgExpName;
+			snapshotWriter.close();
 
-		System.out.println("Writing output from the last sample ...");
-		write();
+			System.out.println("Writing output from the last sample ...");
+			write();
 
-		System.out.println("Sampling completed!");
+			System.out.println("Sampling completed!");
+		}
+		finally {
+			// Stop the fold-in threads, if any
+			if (pool != null)
+				pool.shutdown();
+			pool = null;
+		}
 
 	}
 
 	public void sampleInSingleIteration()
 	{
+		if (numThreads > 1) {
+			sampleInParallel();
+			return;
+		}
+
+		if (kernelImpl == null)
+			kernelImpl = TopicKernel.create(kernel, numTopics, random, System.out);
+		for (int tIndex = 0; tIndex < numTopics; tIndex++)
+			kernelImpl.setDenominator(tIndex, sumTopicWordCount[tIndex] + betaSum);
+
 		for (int dIndex = 0; dIndex < numDocuments; dIndex++) {
-			int docSize = corpus.get(dIndex).size();
-			for (int wIndex = 0; wIndex < docSize; wIndex++) {
+			docTopicCount.getRow(dIndex, docCounts);
+			for (int wIndex = docOffsets[dIndex]; wIndex < docOffsets[dIndex + 1]; wIndex++) {
 				// Get current word and its topic
-				int topic = topicAssignments.get(dIndex).get(wIndex);
-				int word = corpus.get(dIndex).get(wIndex);
+				int topic = topics[wIndex];
+				int word = tokens[wIndex];
 
 				// Decrease counts
-				docTopicCount[dIndex][topic] -= 1;
+				docCounts[topic] -= 1;
 				// docTopicSum[dIndex] -= 1;
-				topicWordCount[topic][word] -= 1;
+				topicWordCount.add(topic, word, -1);
 				sumTopicWordCount[topic] -= 1;
+				kernelImpl.setDenominator(topic, sumTopicWordCount[topic] + betaSum);
 
 				// Sample a topic
-				for (int tIndex = 0; tIndex < numTopics; tIndex++) {
-					multiPros[tIndex] = (docTopicCount[dIndex][tIndex] + alpha)
-						* ((topicWordCount[tIndex][word] + beta) / (sumTopicWordCount[tIndex] + betaSum));
-					// multiPros[tIndex] = ((docTopicCount[dIndex][tIndex] +
-					// alpha) /
-					// (docTopicSum[dIndex] + alphaSum))
-					// * ((topicWordCount[tIndex][word] + beta) /
-					// (topicWordSum[tIndex] + betaSum));
-				}
-				topic = FuncUtils.nextDiscrete(multiPros);
+				topicWordCount.getWord(word, wordCounts);
+				topic = kernelImpl.sampleLDA(docCounts, wordCounts, alpha, beta);
 
 				// Increase counts
-				docTopicCount[dIndex][topic] += 1;
+				docCounts[topic] += 1;
 				// docTopicSum[dIndex] += 1;
-				topicWordCount[topic][word] += 1;
+				topicWordCount.add(topic, word, 1);
 				sumTopicWordCount[topic] += 1;
+				kernelImpl.setDenominator(topic, sumTopicWordCount[topic] + betaSum);
 
 				// Update topic assignments
-				topicAssignments.get(dIndex).set(wIndex, topic);
+				topics[wIndex] = topic;
+			}
+			docTopicCount.setRow(dIndex, docCounts, topics, docOffsets[dIndex],
+				docOffsets[dIndex + 1]);
+		}
+	}
+
+	/**
+	 * Fold in all documents in parallel, against the read-only trained counts,
+	 * then bring topicWordCount up to date with the new topics
+	 */
+	private void sampleInParallel()
+	{
+		if (pool == null)
+			initializeParallel();
+
+		System.arraycopy(topics, 0, previousTopics, 0, numWordsInCorpus);
+		try {
+			for (Future<Void> future : pool.invokeAll(foldInChunks))
+				future.get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+		catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+
+		for (int wIndex = 0; wIndex < numWordsInCorpus; wIndex++) {
+			int oldTopic = previousTopics[wIndex];
+			int topic = topics[wIndex];
+			if (topic != oldTopic) {
+				topicWordCount.add(oldTopic, tokens[wIndex], -1);
+				sumTopicWordCount[oldTopic] -= 1;
+				topicWordCount.add(topic, tokens[wIndex], 1);
+				sumTopicWordCount[topic] += 1;
+			}
+		}
+	}
+
+	/**
+	 * Take the trained counts out of topicWordCount, and split the documents
+	 * into chunks, each with its own random stream so that runs with the same
+	 * seed and number of threads are reproducible
+	 */
+	private void initializeParallel()
+	{
+		trainedTopicWordCount = TopicWordCounts.create(topicWordStorage,
+			numTopics, wordFrequency);
+		trainedTopicWordCount.copyFrom(topicWordCount);
+		trainedSumTopicWordCount = Arrays.copyOf(sumTopicWordCount, numTopics);
+		for (int wIndex = 0; wIndex < numWordsInCorpus; wIndex++) {
+			trainedTopicWordCount.add(topics[wIndex], tokens[wIndex], -1);
+			trainedSumTopicWordCount[topics[wIndex]] -= 1;
+		}
+
+		int numChunks = Math.max(1, Math.min(numDocuments, 4 * numThreads));
+		foldInChunks = new ArrayList<Callable<Void>>();
+		int firstDoc = 0;
+		for (int c = 1; c <= numChunks; c++) {
+			long target = (long) numWordsInCorpus * c / numChunks;
+			int lastDoc = firstDoc;
+			while (lastDoc < numDocuments
+				&& (c == numChunks || docOffsets[lastDoc] < target))
+				lastDoc++;
+			foldInChunks.add(new FoldInChunk(firstDoc, lastDoc));
+			firstDoc = lastDoc;
+		}
+		previousTopics = new int[numWordsInCorpus];
+		pool = new ForkJoinPool(numThreads);
+	}
+
+	/**
+	 * Documents firstDoc ... lastDoc - 1, with their own kernel, random stream
+	 * and scratch space
+	 */
+	private class FoldInChunk
+		implements Callable<Void>
+	{
+		private int firstDoc;
+		private int lastDoc;
+		private TopicKernel kernel;
+		private int[] docCounts;
+		private int[] wordCounts;
+		// Positions in the current document (low 32 bits) sorted by word
+		// (high 32 bits), and the range of the entries of the same word as
+		// every position
+		private long[] wordPositions = new long[0];
+		private int[] groupStart = new int[0];
+		private int[] groupEnd = new int[0];
+
+		FoldInChunk(int firstDoc, int lastDoc)
+		{
+			this.firstDoc = firstDoc;
+			this.lastDoc = lastDoc;
+			kernel = TopicKernel.create(GibbsSamplingLDA_Inf.this.kernel,
+				numTopics, random.split(), firstDoc == 0 ? System.out : null);
+			docCounts = new int[numTopics];
+			wordCounts = new int[numTopics];
+		}
+
+		public Void call()
+		{
+			for (int dIndex = firstDoc; dIndex < lastDoc; dIndex++) {
+				int docStart = docOffsets[dIndex];
+				int docSize = docOffsets[dIndex + 1] - docStart;
+				groupWords(docStart, docSize);
+				docTopicCount.getRow(dIndex, docCounts);
+
+				// The document's own words count towards the topic totals
+				for (int tIndex = 0; tIndex < numTopics; tIndex++)
+					kernel.setDenominator(tIndex, trainedSumTopicWordCount[tIndex]
+						+ docCounts[tIndex] + betaSum);
+
+				for (int i = 0; i < docSize; i++) {
+					int wIndex = docStart + i;
+					int topic = topics[wIndex];
+					int word = tokens[wIndex];
+
+					docCounts[topic] -= 1;
+					kernel.setDenominator(topic, trainedSumTopicWordCount[topic]
+						+ docCounts[topic] + betaSum);
+
+					// Trained counts of the word, plus the other occurrences of
+					// the word in the document
+					trainedTopicWordCount.getWord(word, wordCounts);
+					for (int j = groupStart[i]; j < groupEnd[i]; j++) {
+						int other = docStart + (int) wordPositions[j];
+						if (other != wIndex)
+							wordCounts[topics[other]] += 1;
+					}
+					topic = kernel.sampleLDA(docCounts, wordCounts, alpha, beta);
+
+					docCounts[topic] += 1;
+					kernel.setDenominator(topic, trainedSumTopicWordCount[topic]
+						+ docCounts[topic] + betaSum);
+					topics[wIndex] = topic;
+				}
+				docTopicCount.setRow(dIndex, docCounts, topics, docStart,
+					docStart + docSize);
+			}
+			return null;
+		}
+
+		/**
+		 * Group the positions of a document by word
+		 */
+		private void groupWords(int docStart, int docSize)
+		{
+			if (wordPositions.length < docSize) {
+				wordPositions = new long[docSize];
+				groupStart = new int[docSize];
+				groupEnd = new int[docSize];
+			}
+			for (int i = 0; i < docSize; i++)
+				wordPositions[i] = ((long) tokens[docStart + i] << 32) | i;
+			Arrays.sort(wordPositions, 0, docSize);
+			for (int start = 0, end; start < docSize; start = end) {
+				end = start + 1;
+				while (end < docSize
+					&& wordPositions[end] >>> 32 == wordPositions[start] >>> 32)
+					end++;
+				for (int j = start; j < end; j++) {
+					groupStart[(int) wordPositions[j]] = start;
+					groupEnd[(int) wordPositions[j]] = end;
+				}
 			}
 		}
 	}
@@ -358,6 +657,9 @@ public class GibbsSamplingLDA_Inf
 			writer.write("\n-initFile" + "\t" + tAssignsFilePath);
 		if (savestep > 0)
 			writer.write("\n-sstep" + "\t" + savestep);
+		writer.write("\n-seed" + "\t" + seed);
+		if (!randomGenerator.equals("splittable"))
+			writer.write("\n-rng" + "\t" + randomGenerator);
 
 		writer.close();
 	}
@@ -378,9 +680,8 @@ public class GibbsSamplingLDA_Inf
 		BufferedWriter writer = new BufferedWriter(new FileWriter(folderPath
 			+ expName + ".IDcorpus"));
 		for (int dIndex = 0; dIndex < numDocuments; dIndex++) {
-			int docSize = corpus.get(dIndex).size();
-			for (int wIndex = 0; wIndex < docSize; wIndex++) {
-				writer.write(corpus.get(dIndex).get(wIndex) + " ");
+			for (int wIndex = docOffsets[dIndex]; wIndex < docOffsets[dIndex + 1]; wIndex++) {
+				writer.write(tokens[wIndex] + " ");
 			}
 			writer.write("\n");
 		}
@@ -393,9 +694,8 @@ public class GibbsSamplingLDA_Inf
 		BufferedWriter writer = new BufferedWriter(new FileWriter(folderPath
 			+ expName + ".topicAssignments"));
 		for (int dIndex = 0; dIndex < numDocuments; dIndex++) {
-			int docSize = corpus.get(dIndex).size();
-			for (int wIndex = 0; wIndex < docSize; wIndex++) {
-				writer.write(topicAssignments.get(dIndex).get(wIndex) + " ");
+			for (int wIndex = docOffsets[dIndex]; wIndex < docOffsets[dIndex + 1]; wIndex++) {
+				writer.write(topics[wIndex] + " ");
 			}
 			writer.write("\n");
 		}
@@ -408,12 +708,14 @@ public class GibbsSamplingLDA_Inf
 		BufferedWriter writer = new BufferedWriter(new FileWriter(folderPath
 			+ expName + ".topWords"));
 
+		int[] topicCounts = new int[vocabularySize];
 		for (int tIndex = 0; tIndex < numTopics; tIndex++) {
 			writer.write("Topic" + new Integer(tIndex) + ":");
 
+			topicWordCount.getTopic(tIndex, topicCounts);
 			Map<Integer, Integer> wordCount = new TreeMap<Integer, Integer>();
 			for (int wIndex = 0; wIndex < vocabularySize; wIndex++) {
-				wordCount.put(wIndex, topicWordCount[tIndex][wIndex]);
+				wordCount.put(wIndex, topicCounts[wIndex]);
 			}
 			wordCount = FuncUtils.sortByValueDescending(wordCount);
 
@@ -421,7 +723,7 @@ public class GibbsSamplingLDA_Inf
 			int count = 0;
 			for (Integer index : mostLikelyWords) {
 				if (count < topWords) {
-					double pro = (topicWordCount[tIndex][index] + beta)
+					double pro = (topicCounts[index] + beta)
 						/ (sumTopicWordCount[tIndex] + betaSum);
 					pro = Math.round(pro * 1000000.0) / 1000000.0;
 					writer.write(" " + id2WordVocabulary.get(index) + "(" + pro
@@ -442,9 +744,11 @@ public class GibbsSamplingLDA_Inf
 	{
 		BufferedWriter writer = new BufferedWriter(new FileWriter(folderPath
 			+ expName + ".phi"));
+		int[] topicCounts = new int[vocabularySize];
 		for (int i = 0; i < numTopics; i++) {
+			topicWordCount.getTopic(i, topicCounts);
 			for (int j = 0; j < vocabularySize; j++) {
-				double pro = (topicWordCount[i][j] + beta)
+				double pro = (topicCounts[j] + beta)
 					/ (sumTopicWordCount[i] + betaSum);
 				writer.write(pro + " ");
 			}
@@ -458,9 +762,11 @@ public class GibbsSamplingLDA_Inf
 	{
 		BufferedWriter writer = new BufferedWriter(new FileWriter(folderPath
 			+ expName + ".WTcount"));
+		int[] topicCounts = new int[vocabularySize];
 		for (int i = 0; i < numTopics; i++) {
+			topicWordCount.getTopic(i, topicCounts);
 			for (int j = 0; j < vocabularySize; j++) {
-				writer.write(topicWordCount[i][j] + " ");
+				writer.write(topicCounts[j] + " ");
 			}
 			writer.write("\n");
 		}
@@ -473,13 +779,16 @@ public class GibbsSamplingLDA_Inf
 	{
 		BufferedWriter writer = new BufferedWriter(new FileWriter(folderPath
 			+ expName + ".theta"));
+		int[] docCounts = new int[numTopics];
 		for (int i = 0; i < numDocuments; i++) {
+			docTopicCount.getRow(i, docCounts);
 			for (int j = 0; j < numTopics; j++) {
-				double pro = (docTopicCount[i][j] + alpha)
+				double pro = (docCounts[j] + alpha)
 					/ (sumDocTopicCount[i] + alphaSum);
 				writer.write(pro + " ");
 			}
 			writer.write("\n");
+			Arrays.fill(docCounts, 0);
 		}
 		writer.close();
 	}
@@ -489,11 +798,14 @@ public class GibbsSamplingLDA_Inf
 	{
 		BufferedWriter writer = new BufferedWriter(new FileWriter(folderPath
 			+ expName + ".DTcount"));
+		int[] docCounts = new int[numTopics];
 		for (int i = 0; i < numDocuments; i++) {
+			docTopicCount.getRow(i, docCounts);
 			for (int j = 0; j < numTopics; j++) {
-				writer.write(docTopicCount[i][j] + " ");
+				writer.write(docCounts[j] + " ");
 			}
 			writer.write("\n");
+			Arrays.fill(docCounts, 0);
 		}
 		writer.close();
 	}
@@ -507,6 +819,50 @@ public class GibbsSamplingLDA_Inf
 		writeTopicWordPros();
 	}
 
+	/**
+	 * Snapshot of the current sample, to be written under the given
+	 * experiment name. The topic-word counts include the training corpus, so
+	 * unlike in training they are copied here rather than rebuilt from the
+	 * topic assignments; the document-topic counts are rebuilt, and the
+	 * outputs formatted and written, in the background.
+	 */
+	protected SnapshotWriter.Snapshot snapshot(String name)
+	{
+		final GibbsSamplingLDA_Inf snapshot = new GibbsSamplingLDA_Inf();
+		snapshot.alpha = alpha;
+		snapshot.beta = beta;
+		snapshot.alphaSum = alphaSum;
+		snapshot.betaSum = betaSum;
+		snapshot.numTopics = numTopics;
+		snapshot.topWords = topWords;
+		snapshot.expName = name;
+		snapshot.folderPath = folderPath;
+		snapshot.id2WordVocabulary = id2WordVocabulary;
+		snapshot.vocabularySize = vocabularySize;
+		snapshot.tokens = tokens;
+		snapshot.docOffsets = docOffsets;
+		snapshot.numDocuments = numDocuments;
+		snapshot.numWordsInCorpus = numWordsInCorpus;
+		snapshot.sumDocTopicCount = sumDocTopicCount;
+		snapshot.topics = topics.clone();
+		snapshot.topicWordCount = TopicWordCounts.create(topicWordStorage,
+			numTopics, wordFrequency);
+		snapshot.topicWordCount.copyFrom(topicWordCount);
+		snapshot.sumTopicWordCount = sumTopicWordCount.clone();
+		return () -> {
+			int[] docCapacities = new int[snapshot.numDocuments];
+			for (int i = 0; i < snapshot.numDocuments; i++)
+				docCapacities[i] = Math.min(numTopics, docOffsets[i + 1]
+					- docOffsets[i]);
+			snapshot.docTopicCount = new SortedSparseCounts(docCapacities);
+			for (int dIndex = 0; dIndex < snapshot.numDocuments; dIndex++) {
+				for (int wIndex = docOffsets[dIndex]; wIndex < docOffsets[dIndex + 1]; wIndex++)
+					snapshot.docTopicCount.add(dIndex, snapshot.topics[wIndex], 1);
+			}
+			snapshot.write();
+		};
+	}
+
 	public static void main(String args[])
 		throws Exception
 	{
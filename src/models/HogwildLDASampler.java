@@ -0,0 +1,177 @@
+package models;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import utility.AtomicTopicWordCounts;
+import utility.TopicKernel;
+import utility.TopicWordCounts;
+
+/**
+ * jLDADMM: A Java package for the LDA and DMM topic models
+ *
+ * Shared-memory parallel LDA without copies or merges, in the style of
+ * Hogwild!:
+ *
+ * Feng Niu, Benjamin Recht, Christopher Ré and Stephen J. Wright. 2011.
+ * Hogwild!: A Lock-Free Approach to Parallelizing Stochastic Gradient Descent.
+ * In Advances in Neural Information Processing Systems 24, pages 693–701.
+ *
+ * The documents are split into numThreads shards of contiguous documents
+ * holding about the same number of words, which the threads sample with the
+ * dense sampler, all updating one topic-word count matrix and one vector of
+ * topic totals with atomic increments. No update is lost, so the counts
+ * always match the topic assignments once an iteration is over, but a thread
+ * may read counts halfway through the updates of the others, so samples are
+ * approximate. The model's topicWordCount is replaced with an
+ * {@link AtomicTopicWordCounts} holding the same counts, whatever the storage
+ * chosen, and its sumTopicWordCount is brought up to date at the end of every
+ * iteration.
+ */
+
+public class HogwildLDASampler
+	extends LDASampler
+{
+	private int numThreads;
+	// Topic totals shared by all threads
+	private AtomicIntegerArray sumTopicWordCount;
+	private List<Callable<Void>> shards;
+	private ExecutorService executor;
+
+	public HogwildLDASampler(GibbsSamplingLDA model)
+	{
+		super(model);
+		numThreads = model.numThreads;
+		if (!(model.topicWordCount instanceof AtomicTopicWordCounts)) {
+			if (!model.topicWordStorage.equals("dense")
+				&& !model.topicWordStorage.equals("wordmajor")
+				&& model.logStream != null)
+				model.logStream.println("Hogwild sampling keeps the topic-word "
+					+ "counts in a dense matrix: -twstorage "
+					+ model.topicWordStorage + " is ignored");
+			model.topicWordCount = new AtomicTopicWordCounts(
+				model.topicWordCount);
+		}
+		sumTopicWordCount = new AtomicIntegerArray(model.sumTopicWordCount);
+
+		// Balance the shards by number of words
+		shards = new ArrayList<Callable<Void>>();
+		int firstDoc = 0;
+		for (int s = 1; s <= numThreads; s++) {
+			long target = (long) model.numWordsInCorpus * s / numThreads;
+			int lastDoc = firstDoc;
+			while (lastDoc < model.numDocuments
+				&& (s == numThreads || model.docOffsets[lastDoc] < target))
+				lastDoc++;
+			shards.add(new Shard(firstDoc, lastDoc));
+			firstDoc = lastDoc;
+		}
+
+		executor = Executors.newFixedThreadPool(numThreads, runnable -> {
+			Thread thread = new Thread(runnable, "lda-sampler");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	public void sampleInSingleIteration()
+	{
+		try {
+			for (Future<Void> future : executor.invokeAll(shards))
+				future.get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+		catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+
+		for (int tIndex = 0; tIndex < model.numTopics; tIndex++)
+			model.sumTopicWordCount[tIndex] = sumTopicWordCount.get(tIndex);
+	}
+
+	public void close()
+	{
+		executor.shutdown();
+	}
+
+	/**
+	 * Thread sampling documents firstDoc ... lastDoc - 1, with its own kernel
+	 * and scratch space
+	 */
+	private class Shard
+		implements Callable<Void>
+	{
+		private int firstDoc;
+		private int lastDoc;
+		private TopicKernel kernel;
+		private int[] docCounts;
+		private int[] wordCounts;
+
+		Shard(int firstDoc, int lastDoc)
+		{
+			this.firstDoc = firstDoc;
+			this.lastDoc = lastDoc;
+			kernel = TopicKernel.create(model.kernel, model.numTopics,
+				model.random.split(), firstDoc == 0 ? model.logStream : null);
+			docCounts = new int[model.numTopics];
+			wordCounts = new int[model.numTopics];
+		}
+
+		public Void call()
+		{
+			int numTopics = model.numTopics;
+			double alpha = model.alpha;
+			double beta = model.beta;
+			double betaSum = model.betaSum;
+			int[] tokens = model.tokens;
+			int[] topics = model.topics;
+			int[] docOffsets = model.docOffsets;
+			TopicWordCounts topicWordCount = model.topicWordCount;
+
+			for (int dIndex = firstDoc; dIndex < lastDoc; dIndex++) {
+				// Pick up the changes other threads made to the totals
+				for (int tIndex = 0; tIndex < numTopics; tIndex++)
+					kernel.setDenominator(tIndex,
+						sumTopicWordCount.getPlain(tIndex) + betaSum);
+
+				model.docTopicCount.getRow(dIndex, docCounts);
+				for (int wIndex = docOffsets[dIndex]; wIndex < docOffsets[dIndex + 1]; wIndex++) {
+					// Get current word and its topic
+					int topic = topics[wIndex];
+					int word = tokens[wIndex];
+
+					// Decrease counts
+					docCounts[topic] -= 1;
+					topicWordCount.add(topic, word, -1);
+					kernel.setDenominator(topic,
+						sumTopicWordCount.decrementAndGet(topic) + betaSum);
+
+					// Sample a topic
+					topicWordCount.getWord(word, wordCounts);
+					topic = kernel.sampleLDA(docCounts, wordCounts, alpha, beta);
+
+					// Increase counts
+					docCounts[topic] += 1;
+					topicWordCount.add(topic, word, 1);
+					kernel.setDenominator(topic,
+						sumTopicWordCount.incrementAndGet(topic) + betaSum);
+
+					// Update topic assignments
+					topics[wIndex] = topic;
+				}
+				model.docTopicCount.setRow(dIndex, docCounts, topics,
+					docOffsets[dIndex], docOffsets[dIndex + 1]);
+			}
+			return null;
+		}
+	}
+}
@@ -27,6 +27,9 @@ import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.IOException;
 
+import utility.Corpus;
+import utility.RandomStream;
+
 /**
  * Base class for all models to provide implementation for.
  * <p>This base class abstracts away from the specific model implementations, allowing
@@ -56,6 +59,24 @@ public abstract class JLDADMMModel
    public String expName = "model";
    public String tAssignsFilePath = "";
 
+   /** Seed of the random number generator. A value of 0 picks a seed from the clock when the model is initialized. */
+   public long seed = 0;
+   /** Random number generator: "splittable" (default) or "mt" (Mersenne Twister). */
+   public String randomGenerator = "splittable";
+   /** Random stream of the model, from which every worker thread splits its own. */
+   protected RandomStream random;
+
+   /** Tokenized corpus to train on instead of reading one when the model is initialized, possibly shared read-only with other models. */
+   protected Corpus sharedCorpus;
+   /**
+    * Setter for {@link #sharedCorpus}: Tokenized corpus to train on. When set, the corpus reader given to initialize is not read.
+    * @param corpus Tokenized corpus, which the model does not change.
+    */
+   public void setCorpus(Corpus corpus) { sharedCorpus = corpus; }
+
+   /** Number of threads reading and tokenizing a corpus file, or 0 for one per core */
+   public int readThreads = 0;
+
    /** Path to the directory containing the corpus */
    public File folderPath;
 
@@ -91,6 +112,15 @@ public abstract class JLDADMMModel
     */
    public void setLogStream(PrintStream newLogStream) { logStream = newLogStream; }   
 
+   /**
+    * Create {@link #random} from {@link #seed} and {@link #randomGenerator}, first picking a seed if none was given.
+    */
+   protected void initializeRandom()
+   {
+      if (seed == 0) seed = RandomStream.newSeed();
+      random = RandomStream.create(randomGenerator, seed);
+   }
+
    /**
     * Utility function that implementors can use.
     */
@@ -99,13 +129,17 @@ public abstract class JLDADMMModel
 			  String inExpName, String pathToTAfile, int inSaveStep)
       throws IOException
    {
+      if (inExpName != null) expName = inExpName;
       if (expName == null) expName = "DMMmodel";
       File corpusFile = new File(pathToCorpus);
       corpusPath = pathToCorpus;
       folderPath = corpusFile.getParentFile();
       tAssignsFilePath = pathToTAfile;
-      initialize(new BufferedReader(
-		    new InputStreamReader(new FileInputStream(corpusFile), "UTF-8")),
+      Corpus givenCorpus = sharedCorpus;
+      if (sharedCorpus == null) sharedCorpus = Corpus.read(corpusFile, readThreads);
+      try
+      {
+	 initialize(null,
 		 inNumTopics, inAlpha, inBeta, inNumIterations, inTopWords,
 		 inExpName,
 		 pathToTAfile==null||pathToTAfile.length()==0?null:new BufferedReader(new InputStreamReader(new FileInputStream(pathToTAfile), "UTF-8")),
@@ -116,6 +150,12 @@ public abstract class JLDADMMModel
 		 new BufferedWriter(new OutputStreamWriter(new FileOutputStream(new File(folderPath, expName + ".topWords")), "UTF-8")),
 		 new BufferedWriter(new OutputStreamWriter(new FileOutputStream(new File(folderPath, expName + ".phi")), "UTF-8")),
 		 new BufferedWriter(new OutputStreamWriter(new FileOutputStream(new File(folderPath, expName + ".theta")), "UTF-8")));
+      }
+      finally
+      {
+	 // Only keep a corpus that was given
+	 sharedCorpus = givenCorpus;
+      }
    }
 
    /**
@@ -147,6 +187,19 @@ public abstract class JLDADMMModel
 		 new BufferedWriter(new OutputStreamWriter(new FileOutputStream(docTopicProsFile), "UTF-8")));
    }
 
+   /**
+    * Open a UTF-8 writer for an output file in {@link #folderPath}.
+    * @param name Experiment name.
+    * @param extension File name extension, e.g. ".phi".
+    * @return Writer for the file.
+    * @throws IOException If the file cannot be opened.
+    */
+   protected BufferedWriter outputWriter(String name, String extension)
+      throws IOException
+   {
+      return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(new File(folderPath, name + extension)), "UTF-8"));
+   }
+
    /**
     * Initialize the model.
     * @param corpusReader Reader that supplies the corpus, one document per line.  This can be a subclassed implementation, and needn't correctly implement all methods; the only method called is <code>readLine</code>.
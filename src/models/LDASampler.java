@@ -0,0 +1,73 @@
+package models;
+
+import utility.RandomStream;
+
+/**
+ * jLDADMM: A Java package for the LDA and DMM topic models
+ * 
+ * Base class for the alternative algorithms {@link GibbsSamplingLDA} can use
+ * to resample all topic assignments once. Implementations work directly on
+ * the model's corpus and counts, and must leave topics, docTopicCount,
+ * topicWordCount and sumTopicWordCount consistent at the end of every
+ * iteration, so that the model can be written out at any save step.
+ */
+
+public abstract class LDASampler
+{
+	protected GibbsSamplingLDA model;
+	// Stream of the sampling thread
+	protected RandomStream random;
+
+	public LDASampler(GibbsSamplingLDA model)
+	{
+		this.model = model;
+		random = model.random;
+	}
+
+	/**
+	 * Resample the topic of every word in the corpus once
+	 */
+	public abstract void sampleInSingleIteration();
+
+	/**
+	 * Stop the threads of the sampler, if any, once sampling is over
+	 */
+	public void close()
+	{
+	}
+
+	/**
+	 * Create the sampler with the given name for the given model.
+	 * @param name The sampler name, as given to the <var>-sampler</var> option.
+	 * @param model The model to sample.
+	 * @return The sampler, or null for the default "dense" sampler, which
+	 *         {@link GibbsSamplingLDA} implements itself, unless it is to run
+	 *         in several threads.
+	 */
+	public static LDASampler forName(String name, GibbsSamplingLDA model)
+	{
+		if (name == null || name.equals("dense")) {
+			if (model.numThreads <= 1)
+				return null;
+			else if (model.parallel.equals("adlda"))
+				return new ParallelLDASampler(model);
+			else if (model.parallel.equals("blocks"))
+				return new BlockParallelLDASampler(model);
+			else if (model.parallel.equals("hogwild"))
+				return new HogwildLDASampler(model);
+			else
+				throw new IllegalArgumentException("Unknown parallel LDA sampler: "
+					+ model.parallel);
+		}
+		else if (name.equals("sparse"))
+			return new SparseLDASampler(model);
+		else if (name.equals("alias"))
+			return new AliasLDASampler(model);
+		else if (name.equals("warp"))
+			return new WarpLDASampler(model);
+		else if (name.equals("fplus"))
+			return new FPlusLDASampler(model);
+		else
+			throw new IllegalArgumentException("Unknown LDA sampler: " + name);
+	}
+}
@@ -0,0 +1,257 @@
+package models;
+
+import java.util.Arrays;
+
+import utility.DMMScorer;
+import utility.WordBags;
+
+/**
+ * jLDADMM: A Java package for the LDA and DMM topic models
+ *
+ * Metropolis-Hastings sampler for DMM, after the LDA one (see
+ * {@link AliasLDASampler}), for numbers of clusters too large to score every
+ * document against all of them, even sparsely. Every document alternates
+ * MH_STEPS pairs of proposals:
+ *
+ * - a cluster proposal, proportional to m_t + alpha, drawn in constant time
+ * by picking the cluster of another random document, or a uniformly random
+ * cluster;
+ *
+ * - a word proposal, which picks a random word of the document, w, and draws
+ * a cluster proportionally to n_wt, in constant time by picking the cluster
+ * of another random occurrence of w in the corpus, or with probability
+ * UNIFORM_SHARE a uniformly random cluster, so that every cluster can be
+ * proposed.
+ *
+ * Both proposals are drawn from the current counts of the other documents,
+ * as an alias table over them rebuilt after every move would, so neither
+ * depends on the cluster of the document being sampled, and each is accepted
+ * or rejected against the exact probability of the document (see
+ * {@link DMMScorer}), computed in log space from the rising factorial tables.
+ * Samples are thus exact, and the work per document is linear in its number
+ * of word types whatever the number of clusters. A few MH steps move a
+ * document less far than a full Gibbs draw over all clusters, though, so the
+ * chain may need more iterations to mix.
+ */
+
+public class MHDMMSampler
+	extends DMMSampler
+{
+	// Number of (cluster proposal, word proposal) pairs per document
+	public static final int MH_STEPS = 4;
+	// Probability of drawing a uniformly random cluster in the word proposal
+	public static final double UNIFORM_SHARE = 0.1;
+
+	// Documents of the occurrences of every word type, grouped by document:
+	// those of w are occurrenceDocs[occurrenceOffsets[w]] ...
+	// occurrenceDocs[occurrenceOffsets[w + 1] - 1]
+	private int[] occurrenceDocs;
+	private int[] occurrenceOffsets;
+	// Position in occurrenceDocs of the occurrences of every entry of the
+	// word bags, i.e. of word type words[i] in its document
+	private int[] bagOccurrences;
+
+	// Exact log-probabilities of the clusters for a document
+	private DMMScorer scorer;
+	// Weight of n_wt for every word type of the current document, and of the
+	// uniform part, in its word proposal
+	private double[] wordWeights;
+	private double uniformWeight;
+
+	public MHDMMSampler(GibbsSamplingDMM model)
+	{
+		super(model);
+		int vocabularySize = model.vocabularySize;
+		WordBags wordBags = model.wordBags;
+		int numBagWords = wordBags.words.length;
+
+		// Index the occurrences of every word type
+		occurrenceOffsets = new int[vocabularySize + 1];
+		for (int i = 0; i < numBagWords; i++)
+			occurrenceOffsets[wordBags.words[i] + 1] += wordBags.counts[i];
+		for (int w = 0; w < vocabularySize; w++)
+			occurrenceOffsets[w + 1] += occurrenceOffsets[w];
+		occurrenceDocs = new int[occurrenceOffsets[vocabularySize]];
+		bagOccurrences = new int[numBagWords];
+		int[] next = Arrays.copyOf(occurrenceOffsets, vocabularySize);
+		int longestBag = 0;
+		for (int dIndex = 0; dIndex < model.numDocuments; dIndex++) {
+			for (int i = wordBags.offsets[dIndex]; i < wordBags.offsets[dIndex + 1]; i++) {
+				int word = wordBags.words[i];
+				bagOccurrences[i] = next[word];
+				Arrays.fill(occurrenceDocs, next[word], next[word]
+					+ wordBags.counts[i], dIndex);
+				next[word] += wordBags.counts[i];
+			}
+			longestBag = Math.max(longestBag, wordBags.offsets[dIndex + 1]
+				- wordBags.offsets[dIndex]);
+		}
+
+		scorer = new DMMScorer(model.numTopics, model.alpha, model.beta,
+			model.betaSum, random);
+		wordWeights = new double[longestBag];
+	}
+
+	public void sampleInSingleIteration()
+	{
+		int numTopics = model.numTopics;
+		int[] docTopicCount = model.docTopicCount;
+		WordBags wordBags = model.wordBags;
+		// Documents other than the current one, for the cluster proposal
+		int numOthers = model.numDocuments - 1;
+		double clusterProposalMass = numOthers + model.alphaSum;
+
+		for (int dIndex = 0; dIndex < model.numDocuments; dIndex++) {
+			int topic = model.topicAssignments.get(dIndex);
+			int docSize = wordBags.lengths[dIndex];
+
+			// Decrease counts
+			move(dIndex, topic, -1);
+			setWordWeights(dIndex);
+
+			double logPro = logScore(topic, dIndex);
+			for (int step = 0; step < MH_STEPS; step++) {
+				// Cluster proposal: the cluster of another random document,
+				// or a uniformly random cluster, whose probability cancels
+				// out with the m_t + alpha factor of the document's
+				int proposal;
+				if (random.nextDouble() * clusterProposalMass < numOthers) {
+					int other = random.nextInt(numOthers);
+					if (other >= dIndex)
+						other++;
+					proposal = model.topicAssignments.get(other);
+				}
+				else {
+					proposal = random.nextInt(numTopics);
+				}
+				if (proposal != topic) {
+					double logProposal = logScore(proposal, dIndex);
+					double logAcceptance = logProposal - logPro
+						+ Math.log((docTopicCount[topic] + model.alpha)
+						/ (docTopicCount[proposal] + model.alpha));
+					if (logAcceptance >= 0.0
+						|| random.nextDouble() < Math.exp(logAcceptance)) {
+						topic = proposal;
+						logPro = logProposal;
+					}
+				}
+
+				// Word proposal, of which an empty document has none
+				if (docSize == 0)
+					continue;
+				proposal = wordProposal(dIndex, docSize);
+				if (proposal != topic) {
+					double logProposal = logScore(proposal, dIndex);
+					double logAcceptance = logProposal - logPro
+						+ Math.log(wordProposalPro(dIndex, topic)
+						/ wordProposalPro(dIndex, proposal));
+					if (logAcceptance >= 0.0
+						|| random.nextDouble() < Math.exp(logAcceptance)) {
+						topic = proposal;
+						logPro = logProposal;
+					}
+				}
+			}
+
+			// Increase counts
+			move(dIndex, topic, 1);
+			// Update topic assignments
+			model.topicAssignments.set(dIndex, topic);
+		}
+	}
+
+	/**
+	 * Exact log-probability, up to a constant, of a cluster for a document
+	 * left out of the counts
+	 */
+	private double logScore(int topic, int dIndex)
+	{
+		WordBags wordBags = model.wordBags;
+		return scorer.logScore(model.docTopicCount[topic],
+			model.topicWordCount[topic], model.sumTopicWordCount[topic],
+			wordBags.words, wordBags.counts, wordBags.offsets[dIndex],
+			wordBags.offsets[dIndex + 1], wordBags.lengths[dIndex]);
+	}
+
+	/**
+	 * Draw a cluster from the word proposal of a document: the cluster of
+	 * another occurrence of a random word of the document, or a uniformly
+	 * random cluster
+	 */
+	private int wordProposal(int dIndex, int docSize)
+	{
+		WordBags wordBags = model.wordBags;
+		int i = wordBags.offsets[dIndex];
+		int position = random.nextInt(docSize);
+		while ((position -= wordBags.counts[i]) >= 0)
+			i++;
+		int word = wordBags.words[i];
+
+		int numOthers = occurrenceOffsets[word + 1] - occurrenceOffsets[word]
+			- wordBags.counts[i];
+		if (numOthers == 0 || random.nextDouble() < UNIFORM_SHARE)
+			return random.nextInt(model.numTopics);
+		// Skip the occurrences in the document itself
+		int other = occurrenceOffsets[word] + random.nextInt(numOthers);
+		if (other >= bagOccurrences[i])
+			other += wordBags.counts[i];
+		return model.topicAssignments.get(occurrenceDocs[other]);
+	}
+
+	/**
+	 * Set the weights of the word proposal of a document: every word type w
+	 * is picked with probability c_w / N, and then proposes cluster t with
+	 * probability (1 - UNIFORM_SHARE) * n_wt / (number of occurrences of w in
+	 * other documents) + UNIFORM_SHARE / numTopics, or 1 / numTopics if the
+	 * document holds all occurrences of w
+	 */
+	private void setWordWeights(int dIndex)
+	{
+		WordBags wordBags = model.wordBags;
+		int bagStart = wordBags.offsets[dIndex];
+		uniformWeight = 0.0;
+		for (int i = bagStart; i < wordBags.offsets[dIndex + 1]; i++) {
+			int word = wordBags.words[i];
+			int numOthers = occurrenceOffsets[word + 1]
+				- occurrenceOffsets[word] - wordBags.counts[i];
+			if (numOthers == 0) {
+				wordWeights[i - bagStart] = 0.0;
+				uniformWeight += wordBags.counts[i];
+			}
+			else {
+				wordWeights[i - bagStart] = wordBags.counts[i]
+					* (1.0 - UNIFORM_SHARE) / numOthers;
+				uniformWeight += wordBags.counts[i] * UNIFORM_SHARE;
+			}
+		}
+		uniformWeight /= model.numTopics;
+	}
+
+	/**
+	 * Unnormalized probability of a cluster under the word proposal of a
+	 * document, with the weights set for that document
+	 */
+	private double wordProposalPro(int dIndex, int topic)
+	{
+		WordBags wordBags = model.wordBags;
+		int[] wordCounts = model.topicWordCount[topic];
+		int bagStart = wordBags.offsets[dIndex];
+		double pro = uniformWeight;
+		for (int i = bagStart; i < wordBags.offsets[dIndex + 1]; i++)
+			pro += wordWeights[i - bagStart] * wordCounts[wordBags.words[i]];
+		return pro;
+	}
+
+	/**
+	 * Add (sign 1) or remove (sign -1) a document to or from a cluster
+	 */
+	private void move(int dIndex, int topic, int sign)
+	{
+		WordBags wordBags = model.wordBags;
+		model.docTopicCount[topic] += sign;
+		for (int i = wordBags.offsets[dIndex]; i < wordBags.offsets[dIndex + 1]; i++)
+			model.topicWordCount[topic][wordBags.words[i]] += sign
+				* wordBags.counts[i];
+		model.sumTopicWordCount[topic] += sign * wordBags.lengths[dIndex];
+	}
+}
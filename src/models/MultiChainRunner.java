@@ -0,0 +1,102 @@
+package models;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import utility.Corpus;
+
+/**
+ * jLDADMM: A Java package for the LDA and DMM topic models
+ *
+ * Trains several independent chains of a model at once, e.g. to compare runs
+ * with different seeds or to average over them. The corpus is read and
+ * tokenized once, and every chain is given the same {@link Corpus}, which no
+ * chain changes; each chain keeps only its own topic assignments, counts and
+ * random number generator, so the chains never share anything they write. The
+ * seed of every chain is derived from one master seed, so the chains of a run
+ * with the same master seed are the same whatever order they run in.
+ */
+
+public class MultiChainRunner
+{
+	/**
+	 * Builds the model of one chain, initialized on the given corpus with the
+	 * given seed
+	 */
+	public interface ChainFactory
+	{
+		JLDADMMModel create(int chain, long seed, Corpus corpus)
+			throws Exception;
+	}
+
+	/**
+	 * Seeds of numChains chains, derived from masterSeed
+	 */
+	public static long[] chainSeeds(long masterSeed, int numChains)
+	{
+		SplittableRandom random = new SplittableRandom(masterSeed);
+		long[] seeds = new long[numChains];
+		for (int chain = 0; chain < numChains; chain++) {
+			seeds[chain] = random.nextLong();
+			// A seed of 0 means "take one from the clock"
+			if (seeds[chain] == 0)
+				seeds[chain] = 1;
+		}
+		return seeds;
+	}
+
+	/**
+	 * Run numChains chains, at most one per core at a time, until all of them
+	 * are done
+	 */
+	public static void run(final Corpus corpus, int numChains, long masterSeed,
+		final ChainFactory factory)
+		throws Exception
+	{
+		final long[] seeds = chainSeeds(masterSeed, numChains);
+		List<Callable<Void>> chains = new ArrayList<Callable<Void>>();
+		for (int chain = 0; chain < numChains; chain++) {
+			final int c = chain;
+			chains.add(new Callable<Void>()
+			{
+				public Void call()
+					throws Exception
+				{
+					System.out.println("Chain " + c + " started with seed "
+						+ seeds[c]);
+					JLDADMMModel model = factory.create(c, seeds[c], corpus);
+					model.inference();
+					System.out.println("Chain " + c + " done");
+					return null;
+				}
+			});
+		}
+
+		int numThreads = Math.min(numChains, Runtime.getRuntime()
+			.availableProcessors());
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads,
+			runnable -> {
+				Thread thread = new Thread(runnable, "chain");
+				thread.setDaemon(true);
+				return thread;
+			});
+		try {
+			for (Future<Void> future : executor.invokeAll(chains))
+				future.get();
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception)
+				throw (Exception) e.getCause();
+			throw e;
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+}
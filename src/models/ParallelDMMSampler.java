@@ -0,0 +1,247 @@
+package models;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import utility.ActiveClusters;
+import utility.DMMScorer;
+import utility.WordBags;
+
+/**
+ * jLDADMM: A Java package for the LDA and DMM topic models
+ *
+ * Document-parallel DMM on several threads, in the style of AD-LDA (see
+ * {@link ParallelLDASampler}).
+ *
+ * The documents are split into numThreads shards of contiguous documents
+ * holding about the same number of words, and every shard into numBatches
+ * batches. Every thread keeps its own copy of docTopicCount, topicWordCount
+ * and sumTopicWordCount, taken from the model's counts once, at the start of
+ * the first iteration, and samples its shard against it with the sampler of
+ * {@link GibbsSamplingDMM}, one batch at a time, all threads working on their
+ * batch b at once. After every batch, the documents that moved to another
+ * cluster are moved in the model's counts, and at the start of the next
+ * batch, in the same iteration or the next one, every thread replays the
+ * moves of the other threads on its copy, so the threads only ever disagree
+ * about the moves of the current batch, and the copies are never taken
+ * again. Every thread still holds a full numTopics * vocabularySize matrix. More
+ * batches mean fresher counts, at the cost of more synchronization; as DMM
+ * moves whole documents, and several threads may pick the same empty
+ * cluster for a new one within a batch, large corpora call for more than one.
+ */
+
+public class ParallelDMMSampler
+	extends DMMSampler
+{
+	private int numThreads;
+	private int numBatches;
+	// Documents of every batch of every shard: batch b of shard s holds
+	// documents batchOffsets[s][b] ... batchOffsets[s][b + 1] - 1
+	private int[][] batchOffsets;
+	private List<Shard> shards;
+	private ExecutorService executor;
+	private int batch;
+	// Number of batches run before the current one, over all iterations
+	private long step;
+
+	// Topic of every document at the start of the current batch
+	private int[] previousTopics;
+
+	public ParallelDMMSampler(GibbsSamplingDMM model)
+	{
+		super(model);
+		numThreads = model.numThreads;
+		numBatches = Math.max(1, model.numBatches);
+
+		// Balance the shards, then the batches of every shard, by number of
+		// words
+		int numDocuments = model.numDocuments;
+		long[] docOffsets = new long[numDocuments + 1];
+		for (int dIndex = 0; dIndex < numDocuments; dIndex++)
+			docOffsets[dIndex + 1] = docOffsets[dIndex]
+				+ model.wordBags.lengths[dIndex];
+		batchOffsets = new int[numThreads][numBatches + 1];
+		int dIndex = 0;
+		for (int s = 0; s < numThreads; s++) {
+			for (int b = 0; b < numBatches; b++) {
+				batchOffsets[s][b] = dIndex;
+				long target = docOffsets[numDocuments]
+					* (s * numBatches + b + 1) / (numThreads * numBatches);
+				while (dIndex < numDocuments && docOffsets[dIndex] < target)
+					dIndex++;
+			}
+			if (s == numThreads - 1)
+				dIndex = numDocuments;
+			batchOffsets[s][numBatches] = dIndex;
+		}
+
+		shards = new ArrayList<Shard>();
+		for (int s = 0; s < numThreads; s++)
+			shards.add(new Shard(s));
+
+		previousTopics = new int[numDocuments];
+		executor = Executors.newFixedThreadPool(numThreads, runnable -> {
+			Thread thread = new Thread(runnable, "dmm-sampler");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	public void sampleInSingleIteration()
+	{
+		for (int dIndex = 0; dIndex < model.numDocuments; dIndex++)
+			previousTopics[dIndex] = model.topicAssignments.get(dIndex);
+
+		for (batch = 0; batch < numBatches; batch++, step++) {
+			try {
+				for (Future<Void> future : executor.invokeAll(shards))
+					future.get();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			}
+			catch (ExecutionException e) {
+				throw new RuntimeException(e.getCause());
+			}
+
+			// Move the documents that changed cluster in the model's counts
+			for (Shard shard : shards) {
+				Moves moves = shard.moves[(int) (step % 2)];
+				for (int i = 0; i < moves.size; i++) {
+					int dIndex = moves.docs[i];
+					int topic = moves.newTopics[i];
+					move(dIndex, moves.oldTopics[i], topic,
+						model.docTopicCount, model.topicWordCount,
+						model.sumTopicWordCount);
+					previousTopics[dIndex] = topic;
+				}
+			}
+		}
+	}
+
+	public void close()
+	{
+		executor.shutdown();
+	}
+
+	/**
+	 * Move a document from cluster oldTopic to cluster topic in the given
+	 * counts
+	 */
+	private void move(int dIndex, int oldTopic, int topic, int[] docTopicCount,
+		int[][] topicWordCount, int[] sumTopicWordCount)
+	{
+		WordBags wordBags = model.wordBags;
+		docTopicCount[oldTopic] -= 1;
+		docTopicCount[topic] += 1;
+		for (int i = wordBags.offsets[dIndex]; i < wordBags.offsets[dIndex + 1]; i++) {
+			int word = wordBags.words[i];
+			topicWordCount[oldTopic][word] -= wordBags.counts[i];
+			topicWordCount[topic][word] += wordBags.counts[i];
+		}
+		sumTopicWordCount[oldTopic] -= wordBags.lengths[dIndex];
+		sumTopicWordCount[topic] += wordBags.lengths[dIndex];
+	}
+
+	/**
+	 * Documents that changed cluster in one batch of a shard
+	 */
+	private static class Moves
+	{
+		int[] docs = new int[16];
+		int[] oldTopics = new int[16];
+		int[] newTopics = new int[16];
+		int size;
+
+		void add(int dIndex, int oldTopic, int topic)
+		{
+			if (size == docs.length) {
+				docs = Arrays.copyOf(docs, 2 * size);
+				oldTopics = Arrays.copyOf(oldTopics, 2 * size);
+				newTopics = Arrays.copyOf(newTopics, 2 * size);
+			}
+			docs[size] = dIndex;
+			oldTopics[size] = oldTopic;
+			newTopics[size] = topic;
+			size++;
+		}
+	}
+
+	/**
+	 * Counts, scorer and non-empty clusters of one thread, which samples
+	 * shard s
+	 */
+	private class Shard
+		implements Callable<Void>
+	{
+		private int s;
+		private int[] docTopicCount;
+		private int[][] topicWordCount;
+		private int[] sumTopicWordCount;
+		private DMMScorer scorer;
+		private ActiveClusters activeClusters;
+		// Moves of the current and the previous batch, by the parity of step,
+		// so that the other threads can replay those of the previous batch,
+		// which may be the last of the previous iteration, while this one
+		// records those of the current batch
+		private Moves[] moves = { new Moves(), new Moves() };
+
+		Shard(int s)
+		{
+			this.s = s;
+			docTopicCount = new int[model.numTopics];
+			topicWordCount = new int[model.numTopics][model.vocabularySize];
+			sumTopicWordCount = new int[model.numTopics];
+			scorer = new DMMScorer(model.numTopics, model.alpha, model.beta,
+				model.betaSum, random.split());
+			activeClusters = new ActiveClusters(model.numTopics);
+		}
+
+		public Void call()
+		{
+			int numTopics = model.numTopics;
+			if (step == 0) {
+				System.arraycopy(model.docTopicCount, 0, docTopicCount, 0,
+					numTopics);
+				for (int tIndex = 0; tIndex < numTopics; tIndex++)
+					System.arraycopy(model.topicWordCount[tIndex], 0,
+						topicWordCount[tIndex], 0, model.vocabularySize);
+				System.arraycopy(model.sumTopicWordCount, 0,
+					sumTopicWordCount, 0, numTopics);
+			}
+			else {
+				// Catch up with the other threads' previous batch
+				for (Shard other : shards) {
+					if (other == this)
+						continue;
+					Moves otherMoves = other.moves[(int) ((step - 1) % 2)];
+					for (int i = 0; i < otherMoves.size; i++)
+						move(otherMoves.docs[i], otherMoves.oldTopics[i],
+							otherMoves.newTopics[i], docTopicCount,
+							topicWordCount, sumTopicWordCount);
+				}
+			}
+
+			int firstDoc = batchOffsets[s][batch];
+			int lastDoc = batchOffsets[s][batch + 1];
+			model.sampleDocuments(firstDoc, lastDoc, docTopicCount,
+				topicWordCount, sumTopicWordCount, scorer, activeClusters);
+
+			Moves current = moves[(int) (step % 2)];
+			current.size = 0;
+			for (int dIndex = firstDoc; dIndex < lastDoc; dIndex++) {
+				int topic = model.topicAssignments.get(dIndex);
+				if (topic != previousTopics[dIndex])
+					current.add(dIndex, previousTopics[dIndex], topic);
+			}
+			return null;
+		}
+	}
+}
@@ -0,0 +1,156 @@
+package models;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import utility.TopicKernel;
+import utility.TopicWordCounts;
+
+/**
+ * jLDADMM: A Java package for the LDA and DMM topic models
+ *
+ * Approximate distributed LDA (AD-LDA) on several threads, in the style of:
+ *
+ * David Newman, Arthur Asuncion, Padhraic Smyth and Max Welling. 2009.
+ * Distributed Algorithms for Topic Models. Journal of Machine Learning
+ * Research, 10:1801–1828.
+ *
+ * The documents are split into numThreads shards of contiguous documents
+ * holding about the same number of words. At the start of every iteration,
+ * each thread copies topicWordCount and sumTopicWordCount, then runs the
+ * dense sampler of {@link GibbsSamplingLDA} over its shard against its own
+ * copy; docTopicCount and topics are updated in place, as no two threads
+ * share a document. Once all shards are done, the changes of every thread are
+ * merged back into the global counts, by moving the count of every word whose
+ * topic changed. Within an iteration a thread does not see the changes made by
+ * the others, so samples are approximate, as in AD-LDA.
+ */
+
+public class ParallelLDASampler
+	extends LDASampler
+{
+	private int numThreads;
+	// Documents of every shard: shard s holds documents shardOffsets[s] ...
+	// shardOffsets[s + 1] - 1
+	private int[] shardOffsets;
+	private List<Callable<Void>> shards;
+	private ExecutorService executor;
+
+	// Topic assignments at the start of the iteration
+	private int[] previousTopics;
+
+	public ParallelLDASampler(GibbsSamplingLDA model)
+	{
+		super(model);
+		numThreads = model.numThreads;
+
+		// Balance the shards by number of words
+		shardOffsets = new int[numThreads + 1];
+		int dIndex = 0;
+		for (int s = 1; s < numThreads; s++) {
+			long target = (long) model.numWordsInCorpus * s / numThreads;
+			while (dIndex < model.numDocuments && model.docOffsets[dIndex] < target)
+				dIndex++;
+			shardOffsets[s] = dIndex;
+		}
+		shardOffsets[numThreads] = model.numDocuments;
+
+		int[] wordFrequency = new int[model.vocabularySize];
+		for (int i = 0; i < model.numWordsInCorpus; i++)
+			wordFrequency[model.tokens[i]]++;
+		shards = new ArrayList<Callable<Void>>();
+		for (int s = 0; s < numThreads; s++)
+			shards.add(new Shard(shardOffsets[s], shardOffsets[s + 1],
+				wordFrequency));
+
+		previousTopics = new int[model.numWordsInCorpus];
+		executor = Executors.newFixedThreadPool(numThreads, runnable -> {
+			Thread thread = new Thread(runnable, "lda-sampler");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	public void sampleInSingleIteration()
+	{
+		System.arraycopy(model.topics, 0, previousTopics, 0,
+			model.numWordsInCorpus);
+
+		try {
+			for (Future<Void> future : executor.invokeAll(shards))
+				future.get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+		catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+
+		// Merge the changes of all threads into the global counts
+		TopicWordCounts topicWordCount = model.topicWordCount;
+		int[] sumTopicWordCount = model.sumTopicWordCount;
+		int[] topics = model.topics;
+		for (int wIndex = 0; wIndex < model.numWordsInCorpus; wIndex++) {
+			int oldTopic = previousTopics[wIndex];
+			int topic = topics[wIndex];
+			if (topic != oldTopic) {
+				int word = model.tokens[wIndex];
+				topicWordCount.add(oldTopic, word, -1);
+				sumTopicWordCount[oldTopic] -= 1;
+				topicWordCount.add(topic, word, 1);
+				sumTopicWordCount[topic] += 1;
+			}
+		}
+	}
+
+	public void close()
+	{
+		executor.shutdown();
+	}
+
+	/**
+	 * Counts and scratch space of one thread, which samples documents
+	 * firstDoc ... lastDoc - 1
+	 */
+	private class Shard
+		implements Callable<Void>
+	{
+		private int firstDoc;
+		private int lastDoc;
+		private TopicWordCounts topicWordCount;
+		private int[] sumTopicWordCount;
+		private TopicKernel kernel;
+		private int[] docCounts;
+		private int[] wordCounts;
+
+		Shard(int firstDoc, int lastDoc, int[] wordFrequency)
+		{
+			this.firstDoc = firstDoc;
+			this.lastDoc = lastDoc;
+			topicWordCount = TopicWordCounts.create(model.topicWordStorage,
+				model.numTopics, wordFrequency);
+			sumTopicWordCount = new int[model.numTopics];
+			kernel = TopicKernel.create(model.kernel, model.numTopics,
+				model.random.split(), firstDoc == 0 ? model.logStream : null);
+			docCounts = new int[model.numTopics];
+			wordCounts = new int[model.numTopics];
+		}
+
+		public Void call()
+		{
+			topicWordCount.copyFrom(model.topicWordCount);
+			System.arraycopy(model.sumTopicWordCount, 0, sumTopicWordCount, 0,
+				model.numTopics);
+			model.sampleDocuments(firstDoc, lastDoc, topicWordCount,
+				sumTopicWordCount, kernel, docCounts, wordCounts);
+			return null;
+		}
+	}
+}
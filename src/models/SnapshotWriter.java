@@ -0,0 +1,97 @@
+package models;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * jLDADMM: A Java package for the LDA and DMM topic models
+ *
+ * Writes the intermediate outputs of a model (every savestep iterations) on a
+ * background thread, so that sampling goes on while they are formatted and
+ * written. The model hands over a snapshot holding its own copy of the topic
+ * assignments. At most one snapshot is pending at a time: handing over the
+ * next one first waits until the previous one is written.
+ */
+
+public class SnapshotWriter
+{
+	/**
+	 * Outputs of one sample, written on the background thread
+	 */
+	public interface Snapshot
+	{
+		void write()
+			throws IOException;
+	}
+
+	private ExecutorService executor;
+	private Future<Void> pending;
+
+	/**
+	 * Write a snapshot in the background, once the previous one is written
+	 */
+	public void submit(final Snapshot snapshot)
+		throws IOException
+	{
+		await();
+		if (executor == null)
+			executor = Executors.newSingleThreadExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "snapshot-writer");
+				thread.setDaemon(true);
+				return thread;
+			});
+		pending = executor.submit(() -> {
+			snapshot.write();
+			return null;
+		});
+	}
+
+	/**
+	 * Wait until the pending snapshot, if any, is written, throwing any error
+	 * writing it
+	 */
+	public void await()
+		throws IOException
+	{
+		if (pending == null)
+			return;
+		try {
+			pending.get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new IOException(e.getCause());
+		}
+		finally {
+			pending = null;
+		}
+	}
+
+	/**
+	 * Wait until the pending snapshot is written and stop the background
+	 * thread
+	 */
+	public void close()
+		throws IOException
+	{
+		try {
+			await();
+		}
+		finally {
+			if (executor != null)
+				executor.shutdown();
+			executor = null;
+		}
+	}
+}
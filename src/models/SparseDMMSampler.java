@@ -0,0 +1,270 @@
+package models;
+
+import java.util.Arrays;
+
+import utility.ActiveClusters;
+import utility.DMMScorer;
+import utility.SortedSparseCounts;
+import utility.WordBags;
+
+/**
+ * jLDADMM: A Java package for the LDA and DMM topic models
+ *
+ * Sparse DMM sampler, after the SparseLDA sampler (see
+ * {@link SparseLDASampler}). The unnormalized probability of cluster t for a
+ * document of N words, c_w of which are word type w, is
+ *
+ * (m_t + alpha) * prod_w (n_tw + beta)_(c_w) / (n_t + betaSum)_(N)
+ *
+ * (see {@link DMMScorer}). Up to a factor common to all clusters, prod_w
+ * (beta)_(c_w) / (betaSum)_(N), it splits into two buckets:
+ *
+ * (m_t + alpha) * (betaSum)_(N) / (n_t + betaSum)_(N) [smoothing, all
+ * clusters] + (m_t + alpha) * (betaSum)_(N) / (n_t + betaSum)_(N) * (prod_w
+ * (n_tw + beta)_(c_w) / (beta)_(c_w) - 1) [topic-word, clusters holding one
+ * of the document's words]
+ *
+ * The smoothing bucket only depends on the cluster's sizes and the document's
+ * length, so its total is kept for every document length, and updated
+ * whenever a cluster's counts change. The topic-word bucket is zero unless
+ * the cluster holds one of the document's words, so only the clusters listed
+ * for those words are scored. When the smoothing bucket is sampled, which is
+ * rare once the clusters are well separated, the non-empty clusters are
+ * walked, and the empty ones are picked from at once. Samples are exact.
+ *
+ * Both buckets are plain products. Documents too long for the products to
+ * stay in range, given the size of the corpus and vocabulary, are sampled
+ * with the exact log-space scorer instead.
+ */
+
+public class SparseDMMSampler
+	extends DMMSampler
+{
+	// Largest natural logarithm the ratios of a document's products may
+	// reach, either way, so that they stay in the range of doubles
+	private static final double MAX_LOG_RANGE = 650.0;
+
+	// Clusters every word type is assigned to, sorted by descending count
+	public SortedSparseCounts wordTopicCount;
+	private ActiveClusters activeClusters;
+	// Scorer of the documents longer than maxLength
+	private DMMScorer scorer;
+
+	// Longest document sampled through the buckets
+	private int maxLength;
+	// Total of the smoothing bucket for documents of N words, for every N up
+	// to maxLength
+	private double[] smoothingMass;
+	// 1 / (beta + j) for j < maxLength
+	private double[] inverseBeta;
+
+	// Clusters of the topic-word bucket for the current document, and their
+	// scores
+	private int[] candidates;
+	private double[] candidateScores;
+	private int numCandidates;
+	// Whether every cluster is a candidate for the current document
+	private boolean[] isCandidate;
+
+	public SparseDMMSampler(GibbsSamplingDMM model)
+	{
+		super(model);
+		int numTopics = model.numTopics;
+		WordBags wordBags = model.wordBags;
+
+		// A word type can be in at most as many clusters as documents
+		int[] docFrequency = new int[model.vocabularySize];
+		for (int i = 0; i < wordBags.words.length; i++)
+			docFrequency[wordBags.words[i]]++;
+		for (int w = 0; w < model.vocabularySize; w++)
+			docFrequency[w] = Math.min(numTopics, docFrequency[w]);
+		wordTopicCount = new SortedSparseCounts(docFrequency);
+		for (int dIndex = 0; dIndex < model.numDocuments; dIndex++) {
+			int topic = model.topicAssignments.get(dIndex);
+			for (int i = wordBags.offsets[dIndex]; i < wordBags.offsets[dIndex + 1]; i++)
+				wordTopicCount.add(wordBags.words[i], topic,
+					wordBags.counts[i]);
+		}
+
+		// Every ratio of a cluster's score is between betaSum / (n_t +
+		// betaSum + N) and (betaSum + N) / beta
+		int longest = 0;
+		for (int dIndex = 0; dIndex < model.numDocuments; dIndex++)
+			longest = Math.max(longest, wordBags.lengths[dIndex]);
+		double maxRatio = Math.max(Math.log((model.betaSum + longest)
+			/ model.beta), Math.log((model.numWordsInCorpus + model.betaSum
+			+ longest) / model.betaSum));
+		maxLength = (int) Math.min(longest, MAX_LOG_RANGE / maxRatio);
+		smoothingMass = new double[maxLength + 1];
+		inverseBeta = new double[maxLength];
+		for (int j = 0; j < maxLength; j++)
+			inverseBeta[j] = 1.0 / (model.beta + j);
+
+		activeClusters = new ActiveClusters(numTopics);
+		scorer = new DMMScorer(numTopics, model.alpha, model.beta,
+			model.betaSum, random);
+		candidates = new int[numTopics];
+		candidateScores = new double[numTopics];
+		isCandidate = new boolean[numTopics];
+	}
+
+	public void sampleInSingleIteration()
+	{
+		int[] docTopicCount = model.docTopicCount;
+		int[] sumTopicWordCount = model.sumTopicWordCount;
+		WordBags wordBags = model.wordBags;
+
+		// Recompute the smoothing bucket from scratch, so that rounding
+		// errors of the incremental updates do not accumulate
+		Arrays.fill(smoothingMass, 0.0);
+		for (int tIndex = 0; tIndex < model.numTopics; tIndex++)
+			addSmoothing(tIndex, 1.0);
+		activeClusters.rebuild(docTopicCount, sumTopicWordCount);
+
+		for (int dIndex = 0; dIndex < model.numDocuments; dIndex++) {
+			int topic = model.topicAssignments.get(dIndex);
+			int docSize = wordBags.lengths[dIndex];
+
+			// Decrease counts
+			move(dIndex, topic, -1);
+
+			// Sample a topic
+			if (docSize <= maxLength)
+				topic = sample(dIndex, docSize);
+			else
+				topic = scorer.sample(activeClusters, docTopicCount,
+					model.topicWordCount, sumTopicWordCount, wordBags.words,
+					wordBags.counts, wordBags.offsets[dIndex],
+					wordBags.offsets[dIndex + 1], docSize);
+
+			// Increase counts
+			move(dIndex, topic, 1);
+			// Update topic assignments
+			model.topicAssignments.set(dIndex, topic);
+		}
+	}
+
+	/**
+	 * Sample a cluster for a document of at most maxLength words, through
+	 * the buckets
+	 */
+	private int sample(int dIndex, int docSize)
+	{
+		WordBags wordBags = model.wordBags;
+		int bagStart = wordBags.offsets[dIndex];
+		int bagEnd = wordBags.offsets[dIndex + 1];
+		double beta = model.beta;
+		double betaSum = model.betaSum;
+
+		// Clusters holding one of the document's words
+		numCandidates = 0;
+		for (int i = bagStart; i < bagEnd; i++) {
+			int word = wordBags.words[i];
+			int numWordTopics = wordTopicCount.size(word);
+			for (int k = 0; k < numWordTopics; k++) {
+				int topic = wordTopicCount.topic(word, k);
+				if (!isCandidate[topic]) {
+					isCandidate[topic] = true;
+					candidates[numCandidates++] = topic;
+				}
+			}
+		}
+
+		// Topic-word bucket, as the whole score minus the smoothing one, both
+		// with one ratio per word interleaved so as to stay in range
+		double topicWordMass = 0.0;
+		for (int k = 0; k < numCandidates; k++) {
+			int topic = candidates[k];
+			isCandidate[topic] = false;
+			int[] wordCounts = model.topicWordCount[topic];
+			double denominator = model.sumTopicWordCount[topic] + betaSum;
+			double smoothingScore = model.docTopicCount[topic] + model.alpha;
+			double score = smoothingScore;
+			int n = 0;
+			for (int i = bagStart; i < bagEnd; i++) {
+				double numerator = wordCounts[wordBags.words[i]] + beta;
+				for (int j = 0; j < wordBags.counts[i]; j++, n++) {
+					double ratio = (betaSum + n) / (denominator + n);
+					smoothingScore *= ratio;
+					score *= ratio * (numerator + j) * inverseBeta[j];
+				}
+			}
+			candidateScores[k] = score - smoothingScore;
+			topicWordMass += candidateScores[k];
+		}
+
+		// The incremental updates may leave the smoothing total slightly
+		// negative once it is tiny, e.g. after the last empty cluster fills
+		double smoothing = Math.max(0.0, smoothingMass[docSize]);
+		double sample = random.nextDouble() * (smoothing + topicWordMass);
+		if (numCandidates > 0 && sample < topicWordMass) {
+			int k = 0;
+			while (k < numCandidates - 1
+				&& (sample -= candidateScores[k]) > 0)
+				k++;
+			return candidates[k];
+		}
+
+		// Smoothing bucket
+		sample -= topicWordMass;
+		int numActive = activeClusters.size();
+		for (int k = 0; k < numActive; k++) {
+			int topic = activeClusters.get(k);
+			sample -= smoothingScore(topic, docSize);
+			if (sample <= 0.0)
+				return topic;
+		}
+		// What is left, up to rounding errors, belongs to the empty clusters
+		int numEmpty = activeClusters.numEmpty();
+		if (numEmpty > 0)
+			return activeClusters.getEmpty(random.nextInt(numEmpty));
+		return activeClusters.get(numActive - 1);
+	}
+
+	/**
+	 * (m_t + alpha) * (betaSum)_(N) / (n_t + betaSum)_(N)
+	 */
+	private double smoothingScore(int topic, int docSize)
+	{
+		double denominator = model.sumTopicWordCount[topic] + model.betaSum;
+		double score = model.docTopicCount[topic] + model.alpha;
+		for (int n = 0; n < docSize; n++)
+			score *= (model.betaSum + n) / (denominator + n);
+		return score;
+	}
+
+	/**
+	 * Add sign times the smoothing scores of a cluster to the totals of all
+	 * document lengths
+	 */
+	private void addSmoothing(int topic, double sign)
+	{
+		double denominator = model.sumTopicWordCount[topic] + model.betaSum;
+		double score = sign * (model.docTopicCount[topic] + model.alpha);
+		smoothingMass[0] += score;
+		for (int n = 0; n < maxLength; n++) {
+			score *= (model.betaSum + n) / (denominator + n);
+			smoothingMass[n + 1] += score;
+		}
+	}
+
+	/**
+	 * Add (sign 1) or remove (sign -1) a document to or from a cluster,
+	 * keeping the buckets and the non-empty clusters up to date
+	 */
+	private void move(int dIndex, int topic, int sign)
+	{
+		WordBags wordBags = model.wordBags;
+		addSmoothing(topic, -1.0);
+		model.docTopicCount[topic] += sign;
+		for (int i = wordBags.offsets[dIndex]; i < wordBags.offsets[dIndex + 1]; i++) {
+			int word = wordBags.words[i];
+			model.topicWordCount[topic][word] += sign * wordBags.counts[i];
+			wordTopicCount.add(word, topic, sign * wordBags.counts[i]);
+		}
+		model.sumTopicWordCount[topic] += sign * wordBags.lengths[dIndex];
+		addSmoothing(topic, 1.0);
+		activeClusters.update(topic, model.docTopicCount,
+			model.sumTopicWordCount);
+	}
+}
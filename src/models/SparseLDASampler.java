@@ -0,0 +1,254 @@
+package models;
+
+import java.util.Arrays;
+
+import utility.PackedTopicWordCounts;
+import utility.SortedSparseCounts;
+import utility.TopicWordCounts;
+
+/**
+ * jLDADMM: A Java package for the LDA and DMM topic models
+ * 
+ * SparseLDA sampler, as described in:
+ * 
+ * Limin Yao, David Mimno and Andrew McCallum. 2009. Efficient Methods for
+ * Topic Model Inference on Streaming Document Collections. In Proceedings of
+ * the 15th ACM SIGKDD International Conference on Knowledge Discovery and
+ * Data Mining, pages 937–946.
+ * 
+ * The unnormalized probability of topic t for word w in document d is split
+ * into three buckets:
+ * 
+ * (alpha + n_dt)(beta + n_wt) / (betaSum + n_t) = alpha * beta / (betaSum + n_t)
+ * [smoothing, all topics] + beta * n_dt / (betaSum + n_t) [document, topics
+ * of d] + (alpha + n_dt) * n_wt / (betaSum + n_t) [topic-word, topics of w]
+ * 
+ * The smoothing and document bucket totals are kept up to date as counts
+ * change, and the topic-word bucket only visits the topics word w is assigned
+ * to, so the cost per word depends on how sparse the counts are rather than
+ * on the number of topics. Samples are exact.
+ */
+
+public class SparseLDASampler
+	extends LDASampler
+{
+	// Topics assigned to every word type, sorted by descending count
+	public SortedSparseCounts wordTopicCount;
+	// Whether wordTopicCount is the model's own (packed) topicWordCount, or
+	// a copy which has to be updated alongside it
+	private boolean sharedWordTopicCount;
+
+	// (alpha + n_dt) / (betaSum + n_t) for every topic, given the current
+	// document
+	private double[] coefficients;
+	// Topics with a non-zero count in the current document
+	private int[] docTopics;
+	private int numDocTopics;
+	// Position of every topic in docTopics, or -1
+	private int[] docTopicPosition;
+	// Scores of the topic-word bucket for the current word
+	private double[] topicWordScores;
+	// Counts of the current document, by topic
+	private int[] docCounts;
+
+	private double smoothingOnlyMass; // Total of the smoothing bucket
+	private double docTopicBetaMass; // Total of the document bucket
+
+	public SparseLDASampler(GibbsSamplingLDA model)
+	{
+		super(model);
+		int numTopics = model.numTopics;
+
+		sharedWordTopicCount = model.topicWordCount instanceof PackedTopicWordCounts;
+		if (sharedWordTopicCount) {
+			wordTopicCount = ((PackedTopicWordCounts) model.topicWordCount).wordTopicCount;
+		}
+		else {
+			int[] wordFrequency = new int[model.vocabularySize];
+			for (int i = 0; i < model.numWordsInCorpus; i++)
+				wordFrequency[model.tokens[i]]++;
+			for (int w = 0; w < model.vocabularySize; w++)
+				wordFrequency[w] = Math.min(numTopics, wordFrequency[w]);
+			wordTopicCount = new SortedSparseCounts(wordFrequency);
+			for (int i = 0; i < model.numWordsInCorpus; i++)
+				wordTopicCount.add(model.tokens[i], model.topics[i], 1);
+		}
+
+		coefficients = new double[numTopics];
+		docTopics = new int[numTopics];
+		docTopicPosition = new int[numTopics];
+		Arrays.fill(docTopicPosition, -1);
+		topicWordScores = new double[numTopics];
+		docCounts = new int[numTopics];
+	}
+
+	public void sampleInSingleIteration()
+	{
+		int numTopics = model.numTopics;
+		double alpha = model.alpha;
+		double beta = model.beta;
+		double betaSum = model.betaSum;
+		int[] tokens = model.tokens;
+		int[] topics = model.topics;
+		int[] sumTopicWordCount = model.sumTopicWordCount;
+		TopicWordCounts topicWordCount = model.topicWordCount;
+
+		// Recompute the smoothing bucket from scratch, so that rounding
+		// errors of the incremental updates do not accumulate
+		smoothingOnlyMass = 0.0;
+		for (int tIndex = 0; tIndex < numTopics; tIndex++) {
+			double denominator = sumTopicWordCount[tIndex] + betaSum;
+			smoothingOnlyMass += alpha * beta / denominator;
+			coefficients[tIndex] = alpha / denominator;
+		}
+
+		for (int dIndex = 0; dIndex < model.numDocuments; dIndex++) {
+			int docStart = model.docOffsets[dIndex];
+			int docEnd = model.docOffsets[dIndex + 1];
+			model.docTopicCount.getRow(dIndex, docCounts);
+
+			// Set up the document bucket
+			numDocTopics = 0;
+			docTopicBetaMass = 0.0;
+			for (int wIndex = docStart; wIndex < docEnd; wIndex++) {
+				int topic = topics[wIndex];
+				if (docTopicPosition[topic] < 0) {
+					addDocTopic(topic);
+					double denominator = sumTopicWordCount[topic] + betaSum;
+					docTopicBetaMass += beta * docCounts[topic] / denominator;
+					coefficients[topic] = (alpha + docCounts[topic])
+						/ denominator;
+				}
+			}
+
+			for (int wIndex = docStart; wIndex < docEnd; wIndex++) {
+				// Get current word and its topic
+				int topic = topics[wIndex];
+				int word = tokens[wIndex];
+
+				// Decrease counts
+				removeFromBuckets(topic, docCounts[topic]);
+				docCounts[topic] -= 1;
+				topicWordCount.add(topic, word, -1);
+				sumTopicWordCount[topic] -= 1;
+				if (!sharedWordTopicCount)
+					wordTopicCount.add(word, topic, -1);
+				if (docCounts[topic] == 0)
+					removeDocTopic(topic);
+				addToBuckets(topic, docCounts[topic]);
+
+				// Topic-word bucket
+				double topicWordMass = 0.0;
+				int numWordTopics = wordTopicCount.size(word);
+				for (int i = 0; i < numWordTopics; i++) {
+					double score = coefficients[wordTopicCount.topic(word, i)]
+						* wordTopicCount.count(word, i);
+					topicWordScores[i] = score;
+					topicWordMass += score;
+				}
+
+				// Sample a topic
+				double sample = random.nextDouble()
+					* (smoothingOnlyMass + docTopicBetaMass + topicWordMass);
+				topic = -1;
+				if (sample < topicWordMass) {
+					// Counts are sorted in descending order, so most samples
+					// stop after the first few topics
+					int i = 0;
+					while (i < numWordTopics - 1
+						&& (sample -= topicWordScores[i]) > 0)
+						i++;
+					topic = wordTopicCount.topic(word, i);
+				}
+				else {
+					sample -= topicWordMass;
+					if (sample < docTopicBetaMass) {
+						sample /= beta;
+						int i = 0;
+						for (; i < numDocTopics - 1; i++) {
+							int t = docTopics[i];
+							sample -= docCounts[t]
+								/ (sumTopicWordCount[t] + betaSum);
+							if (sample <= 0.0)
+								break;
+						}
+						topic = docTopics[i];
+					}
+					else {
+						sample -= docTopicBetaMass;
+						sample /= alpha * beta;
+						int t = 0;
+						for (; t < numTopics - 1; t++) {
+							sample -= 1.0 / (sumTopicWordCount[t] + betaSum);
+							if (sample <= 0.0)
+								break;
+						}
+						topic = t;
+					}
+				}
+
+				// Increase counts
+				removeFromBuckets(topic, docCounts[topic]);
+				if (docCounts[topic] == 0)
+					addDocTopic(topic);
+				docCounts[topic] += 1;
+				topicWordCount.add(topic, word, 1);
+				sumTopicWordCount[topic] += 1;
+				if (!sharedWordTopicCount)
+					wordTopicCount.add(word, topic, 1);
+				addToBuckets(topic, docCounts[topic]);
+
+				// Update topic assignments
+				topics[wIndex] = topic;
+			}
+
+			// Reset the coefficients of the document's topics
+			for (int i = 0; i < numDocTopics; i++) {
+				int topic = docTopics[i];
+				coefficients[topic] = alpha
+					/ (sumTopicWordCount[topic] + betaSum);
+				docTopicPosition[topic] = -1;
+			}
+			model.docTopicCount.setRow(dIndex, docCounts, topics, docStart,
+				docEnd);
+		}
+	}
+
+	/**
+	 * Take the contribution of a topic out of the smoothing and document
+	 * buckets, before its counts change
+	 */
+	private void removeFromBuckets(int topic, int docCount)
+	{
+		double denominator = model.sumTopicWordCount[topic] + model.betaSum;
+		smoothingOnlyMass -= model.alpha * model.beta / denominator;
+		docTopicBetaMass -= model.beta * docCount / denominator;
+	}
+
+	/**
+	 * Put the contribution of a topic back into the smoothing and document
+	 * buckets, after its counts have changed
+	 */
+	private void addToBuckets(int topic, int docCount)
+	{
+		double denominator = model.sumTopicWordCount[topic] + model.betaSum;
+		smoothingOnlyMass += model.alpha * model.beta / denominator;
+		docTopicBetaMass += model.beta * docCount / denominator;
+		coefficients[topic] = (model.alpha + docCount) / denominator;
+	}
+
+	private void addDocTopic(int topic)
+	{
+		docTopicPosition[topic] = numDocTopics;
+		docTopics[numDocTopics++] = topic;
+	}
+
+	private void removeDocTopic(int topic)
+	{
+		int position = docTopicPosition[topic];
+		int last = docTopics[--numDocTopics];
+		docTopics[position] = last;
+		docTopicPosition[last] = position;
+		docTopicPosition[topic] = -1;
+	}
+}
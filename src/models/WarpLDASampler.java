@@ -0,0 +1,272 @@
+package models;
+
+import java.util.Arrays;
+
+import utility.TopicWordCounts;
+
+/**
+ * jLDADMM: A Java package for the LDA and DMM topic models
+ *
+ * Cache-efficient Metropolis-Hastings sampler with delayed count updates, in
+ * the style of:
+ *
+ * Jianfei Chen, Kaiwei Li, Jun Zhu and Wenguang Chen. 2016. WarpLDA: a Cache
+ * Efficient O(1) Algorithm for Latent Dirichlet Allocation. Proceedings of the
+ * VLDB Endowment, 9(10):744–755.
+ *
+ * Every iteration visits the corpus twice, each time with MH_STEPS proposals
+ * per word:
+ *
+ * - a word phase, in word order, which accepts or rejects the document
+ * proposals drawn in the last document phase, and draws word proposals
+ * proportional to n_wt + beta;
+ *
+ * - a document phase, in document order, which accepts or rejects the word
+ * proposals, and draws document proposals proportional to n_dt + alpha.
+ *
+ * The acceptance rate of a document proposal only depends on n_w and n_t,
+ * and that of a word proposal only on n_d and n_t, so the word phase only
+ * reads the counts of the current word, kept in a small scratch array, and
+ * the document phase only the row of the current document. Changes made in
+ * one phase reach the other count matrix with a delay: the word phase works
+ * on its own word-ordered copy of the topic assignments, and docTopicCount
+ * rows are brought up to date from it in the document phase,
+ * while topicWordCount is brought up to date at the end of the iteration.
+ * Proposals leave out the word they are drawn for, and are drawn once the
+ * document (or word type) is fully sampled; as in WarpLDA, the counts of the
+ * other words may still change before a proposal is used, so samples are
+ * approximate.
+ */
+
+public class WarpLDASampler
+	extends LDASampler
+{
+	// Number of proposals per word in each phase
+	public static final int MH_STEPS = 2;
+
+	// Positions in tokens of the occurrences of every word type: the
+	// occurrences of w are wordTokens[tokenOffsets[w]] ...
+	// wordTokens[tokenOffsets[w + 1] - 1]
+	private int[] wordTokens;
+	private int[] tokenOffsets;
+	// Position in wordTokens of every word of the corpus
+	private int[] wordOrderPosition;
+	// Topic assignments in word order, as seen by the word phase
+	private int[] wordOrderTopics;
+
+	// MH_STEPS proposals for every word of the corpus, in document order
+	private int[] proposals;
+
+	// n_wt of the current word in the word phase
+	private int[] wordCounts;
+	// n_dt of the current document in the document phase
+	private int[] docCounts;
+
+	public WarpLDASampler(GibbsSamplingLDA model)
+	{
+		super(model);
+		int vocabularySize = model.vocabularySize;
+		int numWords = model.numWordsInCorpus;
+
+		// Index the occurrences of every word type
+		tokenOffsets = new int[vocabularySize + 1];
+		for (int i = 0; i < numWords; i++)
+			tokenOffsets[model.tokens[i] + 1]++;
+		for (int w = 0; w < vocabularySize; w++)
+			tokenOffsets[w + 1] += tokenOffsets[w];
+		wordTokens = new int[numWords];
+		wordOrderPosition = new int[numWords];
+		wordOrderTopics = new int[numWords];
+		int[] next = Arrays.copyOf(tokenOffsets, vocabularySize);
+		for (int i = 0; i < numWords; i++) {
+			int j = next[model.tokens[i]]++;
+			wordTokens[j] = i;
+			wordOrderPosition[i] = j;
+			wordOrderTopics[j] = model.topics[i];
+		}
+
+		wordCounts = new int[model.numTopics];
+		docCounts = new int[model.numTopics];
+
+		// The first word phase needs document proposals to work on
+		proposals = new int[numWords * MH_STEPS];
+		for (int dIndex = 0; dIndex < model.numDocuments; dIndex++) {
+			int docStart = model.docOffsets[dIndex];
+			int docSize = model.docOffsets[dIndex + 1] - docStart;
+			for (int wIndex = docStart; wIndex < docStart + docSize; wIndex++)
+				drawDocProposals(wIndex, docStart, docSize);
+		}
+	}
+
+	public void sampleInSingleIteration()
+	{
+		sampleWordPhase();
+		sampleDocPhase();
+
+		// Bring topicWordCount up to date with the document phase
+		TopicWordCounts topicWordCount = model.topicWordCount;
+		int[] topics = model.topics;
+		for (int word = 0; word < model.vocabularySize; word++) {
+			for (int j = tokenOffsets[word]; j < tokenOffsets[word + 1]; j++) {
+				int topic = topics[wordTokens[j]];
+				if (topic != wordOrderTopics[j]) {
+					topicWordCount.add(wordOrderTopics[j], word, -1);
+					topicWordCount.add(topic, word, 1);
+					wordOrderTopics[j] = topic;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Accept or reject the document proposals, and draw word proposals, word
+	 * type by word type
+	 */
+	private void sampleWordPhase()
+	{
+		int numTopics = model.numTopics;
+		double beta = model.beta;
+		double betaSum = model.betaSum;
+		double betaMass = numTopics * beta;
+		TopicWordCounts topicWordCount = model.topicWordCount;
+		int[] sumTopicWordCount = model.sumTopicWordCount;
+
+		for (int word = 0; word < model.vocabularySize; word++) {
+			int wordStart = tokenOffsets[word];
+			int frequency = tokenOffsets[word + 1] - wordStart;
+			for (int j = wordStart; j < wordStart + frequency; j++)
+				wordCounts[wordOrderTopics[j]]++;
+
+			for (int j = wordStart; j < wordStart + frequency; j++) {
+				int topic = wordOrderTopics[j];
+				int proposalStart = wordTokens[j] * MH_STEPS;
+
+				wordCounts[topic] -= 1;
+				sumTopicWordCount[topic] -= 1;
+				for (int step = 0; step < MH_STEPS; step++) {
+					int proposal = proposals[proposalStart + step];
+					if (proposal != topic) {
+						double acceptance = (wordCounts[proposal] + beta)
+							* (sumTopicWordCount[topic] + betaSum)
+							/ ((wordCounts[topic] + beta)
+							* (sumTopicWordCount[proposal] + betaSum));
+						if (acceptance >= 1.0 || random.nextDouble() < acceptance)
+							topic = proposal;
+					}
+				}
+				wordCounts[topic] += 1;
+				sumTopicWordCount[topic] += 1;
+
+				if (topic != wordOrderTopics[j]) {
+					topicWordCount.add(wordOrderTopics[j], word, -1);
+					topicWordCount.add(topic, word, 1);
+					wordOrderTopics[j] = topic;
+				}
+			}
+
+			// Word proposals, once all occurrences of the word are sampled
+			for (int j = wordStart; j < wordStart + frequency; j++) {
+				drawWordProposals(j, wordStart, frequency, betaMass);
+				wordCounts[wordOrderTopics[j]] = 0;
+			}
+		}
+	}
+
+	/**
+	 * Accept or reject the word proposals, and draw document proposals,
+	 * document by document
+	 */
+	private void sampleDocPhase()
+	{
+		double alpha = model.alpha;
+		double betaSum = model.betaSum;
+		int[] topics = model.topics;
+		int[] sumTopicWordCount = model.sumTopicWordCount;
+
+		for (int dIndex = 0; dIndex < model.numDocuments; dIndex++) {
+			int docStart = model.docOffsets[dIndex];
+			int docSize = model.docOffsets[dIndex + 1] - docStart;
+			model.docTopicCount.getRow(dIndex, docCounts);
+
+			// Bring the document's counts up to date with the word phase
+			for (int wIndex = docStart; wIndex < docStart + docSize; wIndex++) {
+				int topic = wordOrderTopics[wordOrderPosition[wIndex]];
+				if (topic != topics[wIndex]) {
+					docCounts[topics[wIndex]] -= 1;
+					docCounts[topic] += 1;
+					topics[wIndex] = topic;
+				}
+			}
+
+			for (int wIndex = docStart; wIndex < docStart + docSize; wIndex++) {
+				int topic = topics[wIndex];
+				int proposalStart = wIndex * MH_STEPS;
+
+				docCounts[topic] -= 1;
+				sumTopicWordCount[topic] -= 1;
+				for (int step = 0; step < MH_STEPS; step++) {
+					int proposal = proposals[proposalStart + step];
+					if (proposal != topic) {
+						double acceptance = (docCounts[proposal] + alpha)
+							* (sumTopicWordCount[topic] + betaSum)
+							/ ((docCounts[topic] + alpha)
+							* (sumTopicWordCount[proposal] + betaSum));
+						if (acceptance >= 1.0 || random.nextDouble() < acceptance)
+							topic = proposal;
+					}
+				}
+				docCounts[topic] += 1;
+				sumTopicWordCount[topic] += 1;
+				topics[wIndex] = topic;
+			}
+
+			model.docTopicCount.setRow(dIndex, docCounts, topics, docStart,
+				docStart + docSize);
+
+			// Document proposals, once all words of the document are sampled
+			for (int wIndex = docStart; wIndex < docStart + docSize; wIndex++)
+				drawDocProposals(wIndex, docStart, docSize);
+		}
+	}
+
+	/**
+	 * Word proposals for an occurrence of a word: the topic of another random
+	 * occurrence of the word, or a uniformly random topic
+	 */
+	private void drawWordProposals(int j, int wordStart, int frequency,
+		double betaMass)
+	{
+		int others = frequency - 1;
+		for (int step = 0; step < MH_STEPS; step++) {
+			int proposal;
+			if (random.nextDouble() * (others + betaMass) < others) {
+				int k = wordStart + random.nextInt(others);
+				proposal = wordOrderTopics[k < j ? k : k + 1];
+			}
+			else {
+				proposal = random.nextInt(model.numTopics);
+			}
+			proposals[wordTokens[j] * MH_STEPS + step] = proposal;
+		}
+	}
+
+	/**
+	 * Document proposals for a word: the topic of another random word of the
+	 * document, or a uniformly random topic
+	 */
+	private void drawDocProposals(int wIndex, int docStart, int docSize)
+	{
+		int others = docSize - 1;
+		for (int step = 0; step < MH_STEPS; step++) {
+			int proposal;
+			if (random.nextDouble() * (others + model.alphaSum) < others) {
+				int k = docStart + random.nextInt(others);
+				proposal = model.topics[k < wIndex ? k : k + 1];
+			}
+			else {
+				proposal = random.nextInt(model.numTopics);
+			}
+			proposals[wIndex * MH_STEPS + step] = proposal;
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package utility;
+
+/**
+ * jLDADMM: A Java package for the LDA and DMM topic models
+ *
+ * The non-empty clusters of DMM, i.e. those holding documents or words. All
+ * empty clusters have the same probability for any document, so they only
+ * need to be scored once, and the sampler's cost grows with the number of
+ * non-empty clusters rather than numTopics, which is only an upper bound.
+ *
+ * The clusters are kept in one array, the non-empty ones first, along with
+ * the position of every cluster in it, so that a cluster is moved between
+ * both parts in constant time.
+ */
+
+public class ActiveClusters
+{
+	private int numTopics;
+	// Non-empty clusters in topics[0 ... size - 1], empty ones after them
+	private int[] topics;
+	private int[] positions;
+	private int size;
+
+	public ActiveClusters(int numTopics)
+	{
+		this.numTopics = numTopics;
+		topics = new int[numTopics];
+		positions = new int[numTopics];
+		for (int tIndex = 0; tIndex < numTopics; tIndex++) {
+			topics[tIndex] = tIndex;
+			positions[tIndex] = tIndex;
+		}
+	}
+
+	/**
+	 * Find the non-empty clusters from scratch
+	 */
+	public void rebuild(int[] clusterCounts, int[] sumTopicWordCount)
+	{
+		size = 0;
+		for (int tIndex = 0; tIndex < numTopics; tIndex++)
+			if (clusterCounts[tIndex] > 0 || sumTopicWordCount[tIndex] > 0)
+				swap(positions[tIndex], size++);
+	}
+
+	/**
+	 * Move the given cluster to the right part after its counts changed
+	 */
+	public void update(int topic, int[] clusterCounts, int[] sumTopicWordCount)
+	{
+		boolean active = clusterCounts[topic] > 0
+			|| sumTopicWordCount[topic] > 0;
+		int position = positions[topic];
+		if (active && position >= size)
+			swap(position, size++);
+		else if (!active && position < size)
+			swap(position, --size);
+	}
+
+	/**
+	 * Number of non-empty clusters
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * The i^{th} non-empty cluster
+	 */
+	public int get(int i)
+	{
+		return topics[i];
+	}
+
+	/**
+	 * Number of empty clusters
+	 */
+	public int numEmpty()
+	{
+		return numTopics - size;
+	}
+
+	/**
+	 * The i^{th} empty cluster
+	 */
+	public int getEmpty(int i)
+	{
+		return topics[size + i];
+	}
+
+	private void swap(int i, int j)
+	{
+		int topic = topics[i];
+		topics[i] = topics[j];
+		topics[j] = topic;
+		positions[topics[i]] = i;
+		positions[topics[j]] = j;
+	}
+}
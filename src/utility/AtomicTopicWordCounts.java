@@ -0,0 +1,72 @@
+package utility;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * jLDADMM: A Java package for the LDA and DMM topic models
+ *
+ * Topic-word counts stored as a dense vocabularySize * numTopics matrix, one
+ * AtomicIntegerArray per word type, so that several threads can update the
+ * same counts without losing any change. As with the other dense storages,
+ * the matrix may hold more than 2^31 counts in all. Reads are plain and may
+ * see the counts halfway through the updates of other threads.
+ */
+
+public class AtomicTopicWordCounts
+	extends TopicWordCounts
+{
+	private AtomicIntegerArray[] counts;
+
+	public AtomicTopicWordCounts(int numTopics, int vocabularySize)
+	{
+		super(numTopics, vocabularySize);
+		counts = new AtomicIntegerArray[vocabularySize];
+		for (int wIndex = 0; wIndex < vocabularySize; wIndex++)
+			counts[wIndex] = new AtomicIntegerArray(numTopics);
+	}
+
+	/**
+	 * Copy of the counts of another storage
+	 */
+	public AtomicTopicWordCounts(TopicWordCounts other)
+	{
+		this(other.numTopics, other.vocabularySize);
+		int[] wordCounts = new int[numTopics];
+		for (int wIndex = 0; wIndex < vocabularySize; wIndex++) {
+			other.getWord(wIndex, wordCounts);
+			for (int tIndex = 0; tIndex < numTopics; tIndex++)
+				counts[wIndex].set(tIndex, wordCounts[tIndex]);
+		}
+	}
+
+	public int get(int topic, int word)
+	{
+		return counts[word].getPlain(topic);
+	}
+
+	public void add(int topic, int word, int delta)
+	{
+		counts[word].getAndAdd(topic, delta);
+	}
+
+	public void getWord(int word, int[] wordCounts)
+	{
+		AtomicIntegerArray row = counts[word];
+		for (int tIndex = 0; tIndex < numTopics; tIndex++)
+			wordCounts[tIndex] = row.getPlain(tIndex);
+	}
+
+	public void getTopic(int topic, int[] topicCounts)
+	{
+		for (int wIndex = 0; wIndex < vocabularySize; wIndex++)
+			topicCounts[wIndex] = counts[wIndex].getPlain(topic);
+	}
+
+	public void copyFrom(TopicWordCounts other)
+	{
+		AtomicIntegerArray[] otherCounts = ((AtomicTopicWordCounts) other).counts;
+		for (int wIndex = 0; wIndex < vocabularySize; wIndex++)
+			for (int tIndex = 0; tIndex < numTopics; tIndex++)
+				counts[wIndex].set(tIndex, otherCounts[wIndex].get(tIndex));
+	}
+}
@@ -44,6 +44,33 @@ public class CmdArgs
 	@Option(name = "-prob")
 	public String prob = "";
 
+	@Option(name = "-sampler", usage = "Specify sampling algorithm: dense (default), sparse, fplus, alias or warp for LDA; dense, sparse or mh for DMM")
+	public String sampler = "dense";
+
+	@Option(name = "-kernel", usage = "Specify topic scoring kernel for LDA and LDAinf: scalar (default), vector or vector32")
+	public String kernel = "scalar";
+
+	@Option(name = "-threads", usage = "Specify number of sampling threads for LDA (dense sampler), DMM, LDAinf and DMMinf")
+	public int threads = 1;
+
+	@Option(name = "-parallel", usage = "Specify parallel LDA sampler with several threads: adlda (default), blocks or hogwild")
+	public String parallel = "adlda";
+
+	@Option(name = "-batches", usage = "Specify number of times per iteration the counts of parallel DMM threads are merged")
+	public int batches = 1;
+
+	@Option(name = "-chains", usage = "Specify number of independent LDA/DMM chains trained at once on one tokenized corpus")
+	public int chains = 1;
+
+	@Option(name = "-seed", handler = LongOptionHandler.class, usage = "Specify random seed (default: taken from the clock)")
+	public long seed = 0;
+
+	@Option(name = "-rng", usage = "Specify random number generator: splittable (default) or mt")
+	public String rng = "splittable";
+
+	@Option(name = "-twstorage", usage = "Specify LDA topic-word count storage: dense (default), wordmajor or packed")
+	public String twstorage = "dense";
+
 	@Option(name = "-paras", usage = "Specify path to hyper-parameter file")
 	public String paras = "";
 
@@ -0,0 +1,364 @@
+package utility;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * jLDADMM: A Java package for the LDA and DMM topic models
+ *
+ * A tokenized topic modeling corpus, with word IDs given in order of first
+ * occurrence. Nothing changes it once it is read, so several models can be
+ * trained on it at once (see {@link models.MultiChainRunner}), each keeping
+ * only its own topic assignments and counts.
+ *
+ * A corpus file can be read on several threads: the file is split into chunks
+ * of whole lines, which are tokenized at once, each with its own vocabulary.
+ * The vocabularies are then merged chunk by chunk, in file order, so every
+ * word gets the same ID as when the file is read on one thread.
+ */
+
+public class Corpus
+{
+	// Word ID-based corpus, stored flat: the words of document d are
+	// tokens[docOffsets[d]] ... tokens[docOffsets[d + 1] - 1]
+	public int[] tokens;
+	// Offset of the first word of every document in tokens, followed by
+	// numWordsInCorpus (so there are numDocuments + 1 entries)
+	public int[] docOffsets;
+	public int numDocuments; // Number of documents in the corpus
+	public int numWordsInCorpus; // Number of words in the corpus
+
+	public HashMap<String, Integer> word2IdVocabulary; // Vocabulary to get ID
+														// given a word
+	public HashMap<Integer, String> id2WordVocabulary; // Vocabulary to get word
+														// given an ID
+	public int vocabularySize; // The number of word types in the corpus
+
+	// The same corpus as bags of words, built when first asked for
+	private WordBags wordBags;
+
+	/**
+	 * Read a corpus, one document per line, skipping empty lines
+	 */
+	public static Corpus read(BufferedReader corpusReader)
+	{
+		Corpus corpus = new Corpus();
+		HashMap<String, Integer> word2IdVocabulary = new HashMap<String, Integer>();
+		HashMap<Integer, String> id2WordVocabulary = new HashMap<Integer, String>();
+		int[] tokens = new int[1024];
+		int[] docOffsets = new int[256];
+		int numDocuments = 0;
+		int numWordsInCorpus = 0;
+
+		BufferedReader br = null;
+		try {
+			int indexWord = -1;
+			br = corpusReader;
+			for (String doc; (doc = br.readLine()) != null;) {
+
+				if (doc.trim().length() == 0)
+					continue;
+
+				String[] words = doc.trim().split("\\s+");
+				if (numWordsInCorpus + words.length > tokens.length)
+					tokens = Arrays.copyOf(tokens, Math.max(2 * tokens.length,
+						numWordsInCorpus + words.length));
+				if (numDocuments + 2 > docOffsets.length)
+					docOffsets = Arrays.copyOf(docOffsets, 2 * docOffsets.length);
+
+				docOffsets[numDocuments] = numWordsInCorpus;
+				for (String word : words) {
+					Integer id = word2IdVocabulary.get(word);
+					if (id == null) {
+						indexWord += 1;
+						id = indexWord;
+						word2IdVocabulary.put(word, id);
+						id2WordVocabulary.put(id, word);
+					}
+					tokens[numWordsInCorpus++] = id;
+				}
+
+				numDocuments++;
+			}
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+		}
+		docOffsets[numDocuments] = numWordsInCorpus;
+
+		corpus.tokens = Arrays.copyOf(tokens, numWordsInCorpus);
+		corpus.docOffsets = Arrays.copyOf(docOffsets, numDocuments + 1);
+		corpus.numDocuments = numDocuments;
+		corpus.numWordsInCorpus = numWordsInCorpus;
+		corpus.word2IdVocabulary = word2IdVocabulary;
+		corpus.id2WordVocabulary = id2WordVocabulary;
+		corpus.vocabularySize = word2IdVocabulary.size();
+		return corpus;
+	}
+
+	// Largest number of bytes tokenized by one task
+	private static final int MAX_CHUNK_BYTES = 64 << 20;
+
+	/**
+	 * Read a UTF-8 corpus file, one document per line, skipping empty lines,
+	 * on numThreads threads (one per core if numThreads <= 0)
+	 */
+	public static Corpus read(File file, int numThreads)
+		throws IOException
+	{
+		if (numThreads <= 0)
+			numThreads = Runtime.getRuntime().availableProcessors();
+
+		try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+			FileChannel channel = input.getChannel();
+			long size = channel.size();
+
+			// Split the file into chunks ending at line boundaries, several
+			// per thread so that the threads stay busy
+			int numChunks = (int) Math.max(4L * numThreads, (size
+				+ MAX_CHUNK_BYTES - 1) / MAX_CHUNK_BYTES);
+			long[] starts = new long[numChunks + 1];
+			ByteBuffer probe = ByteBuffer.allocate(4096);
+			for (int c = 1; c < numChunks; c++) {
+				long position = Math.max(starts[c - 1], size * c / numChunks);
+				starts[c] = nextLineStart(channel, position, size, probe);
+			}
+			starts[numChunks] = size;
+
+			List<Callable<Chunk>> tasks = new ArrayList<Callable<Chunk>>();
+			for (int c = 0; c < numChunks; c++) {
+				final long start = starts[c];
+				final long end = starts[c + 1];
+				tasks.add(() -> Chunk.tokenize(channel, start, end));
+			}
+
+			ExecutorService executor = Executors.newFixedThreadPool(
+				numThreads, runnable -> {
+					Thread thread = new Thread(runnable, "corpus-reader");
+					thread.setDaemon(true);
+					return thread;
+				});
+			try {
+				List<Chunk> chunks = new ArrayList<Chunk>(numChunks);
+				for (Future<Chunk> future : executor.invokeAll(tasks))
+					chunks.add(future.get());
+				return merge(chunks, executor);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException(e);
+			}
+			catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException)
+					throw (IOException) e.getCause();
+				throw new IOException(e.getCause());
+			}
+			finally {
+				executor.shutdown();
+			}
+		}
+	}
+
+	/**
+	 * Position just after the first line break at or after position
+	 */
+	private static long nextLineStart(FileChannel channel, long position,
+		long size, ByteBuffer probe)
+		throws IOException
+	{
+		while (position < size) {
+			probe.clear();
+			int read = channel.read(probe, position);
+			if (read <= 0)
+				break;
+			for (int i = 0; i < read; i++)
+				if (probe.get(i) == '\n')
+					return position + i + 1;
+			position += read;
+		}
+		return size;
+	}
+
+	/**
+	 * Give the words of all chunks global IDs in order of first occurrence,
+	 * then copy the chunks' words, with their global IDs, into one corpus
+	 */
+	private static Corpus merge(List<Chunk> chunks, ExecutorService executor)
+		throws InterruptedException, ExecutionException
+	{
+		Corpus corpus = new Corpus();
+		HashMap<String, Integer> word2IdVocabulary = new HashMap<String, Integer>();
+		HashMap<Integer, String> id2WordVocabulary = new HashMap<Integer, String>();
+		final int[][] globalIds = new int[chunks.size()][];
+		final int[] firstDocs = new int[chunks.size()];
+		final int[] firstWords = new int[chunks.size()];
+		long numWordsInCorpus = 0;
+		int numDocuments = 0;
+		for (int c = 0; c < chunks.size(); c++) {
+			Chunk chunk = chunks.get(c);
+			globalIds[c] = new int[chunk.words.size()];
+			for (int localId = 0; localId < chunk.words.size(); localId++) {
+				String word = chunk.words.get(localId);
+				Integer id = word2IdVocabulary.get(word);
+				if (id == null) {
+					id = word2IdVocabulary.size();
+					word2IdVocabulary.put(word, id);
+					id2WordVocabulary.put(id, word);
+				}
+				globalIds[c][localId] = id;
+			}
+			firstDocs[c] = numDocuments;
+			firstWords[c] = (int) numWordsInCorpus;
+			numDocuments += chunk.numDocuments;
+			numWordsInCorpus += chunk.numWords;
+			if (numWordsInCorpus > Integer.MAX_VALUE - 8)
+				throw new IllegalStateException(
+					"Corpus has too many words: " + numWordsInCorpus);
+		}
+
+		final int[] tokens = new int[(int) numWordsInCorpus];
+		final int[] docOffsets = new int[numDocuments + 1];
+		List<Callable<Void>> copies = new ArrayList<Callable<Void>>();
+		for (int c = 0; c < chunks.size(); c++) {
+			final Chunk chunk = chunks.get(c);
+			final int[] ids = globalIds[c];
+			final int firstDoc = firstDocs[c];
+			final int firstWord = firstWords[c];
+			copies.add(() -> {
+				for (int i = 0; i < chunk.numWords; i++)
+					tokens[firstWord + i] = ids[chunk.tokens[i]];
+				for (int d = 0; d < chunk.numDocuments; d++)
+					docOffsets[firstDoc + d] = firstWord + chunk.docOffsets[d];
+				return null;
+			});
+		}
+		for (Future<Void> future : executor.invokeAll(copies))
+			future.get();
+		docOffsets[numDocuments] = (int) numWordsInCorpus;
+
+		corpus.tokens = tokens;
+		corpus.docOffsets = docOffsets;
+		corpus.numDocuments = numDocuments;
+		corpus.numWordsInCorpus = (int) numWordsInCorpus;
+		corpus.word2IdVocabulary = word2IdVocabulary;
+		corpus.id2WordVocabulary = id2WordVocabulary;
+		corpus.vocabularySize = word2IdVocabulary.size();
+		return corpus;
+	}
+
+	/**
+	 * Lines of a corpus file tokenized with their own vocabulary, whose IDs
+	 * are given in order of first occurrence in the chunk
+	 */
+	private static class Chunk
+	{
+		List<String> words = new ArrayList<String>();
+		int[] tokens = new int[1024];
+		int[] docOffsets = new int[64];
+		int numDocuments;
+		int numWords;
+
+		/**
+		 * Tokenize the bytes start ... end - 1 of a file, which hold whole
+		 * lines
+		 */
+		static Chunk tokenize(FileChannel channel, long start, long end)
+			throws IOException
+		{
+			ByteBuffer bytes = ByteBuffer.allocate((int) (end - start));
+			while (bytes.hasRemaining()
+				&& channel.read(bytes, start + bytes.position()) > 0)
+				;
+			bytes.flip();
+			String text = StandardCharsets.UTF_8.decode(bytes).toString();
+
+			Chunk chunk = new Chunk();
+			HashMap<String, Integer> word2Id = new HashMap<String, Integer>();
+			int length = text.length();
+			int lineStart = 0;
+			while (lineStart < length) {
+				// Lines end with \n, \r or \r\n, as with BufferedReader.readLine
+				int lineEnd = lineStart;
+				while (lineEnd < length && text.charAt(lineEnd) != '\n'
+					&& text.charAt(lineEnd) != '\r')
+					lineEnd++;
+				chunk.addDocument(text, lineStart, lineEnd, word2Id);
+				lineStart = lineEnd + 1;
+				if (lineEnd + 1 < length && text.charAt(lineEnd) == '\r'
+					&& text.charAt(lineEnd + 1) == '\n')
+					lineStart++;
+			}
+			return chunk;
+		}
+
+		/**
+		 * Add the line text[lineStart ... lineEnd - 1], unless it is empty,
+		 * split as String.trim().split("\\s+") would
+		 */
+		void addDocument(String text, int lineStart, int lineEnd,
+			HashMap<String, Integer> word2Id)
+		{
+			while (lineStart < lineEnd && text.charAt(lineStart) <= ' ')
+				lineStart++;
+			while (lineEnd > lineStart && text.charAt(lineEnd - 1) <= ' ')
+				lineEnd--;
+			if (lineStart == lineEnd)
+				return;
+
+			if (numDocuments + 1 >= docOffsets.length)
+				docOffsets = Arrays.copyOf(docOffsets, 2 * docOffsets.length);
+			docOffsets[numDocuments++] = numWords;
+			int wordStart = lineStart;
+			while (wordStart < lineEnd) {
+				int wordEnd = wordStart;
+				while (wordEnd < lineEnd && !isSpace(text.charAt(wordEnd)))
+					wordEnd++;
+				String word = text.substring(wordStart, wordEnd);
+				Integer id = word2Id.get(word);
+				if (id == null) {
+					id = words.size();
+					word2Id.put(word, id);
+					words.add(word);
+				}
+				if (numWords == tokens.length)
+					tokens = Arrays.copyOf(tokens, 2 * tokens.length);
+				tokens[numWords++] = id;
+
+				wordStart = wordEnd;
+				while (wordStart < lineEnd && isSpace(text.charAt(wordStart)))
+					wordStart++;
+			}
+		}
+
+		// The characters matched by the regular expression \s
+		private static boolean isSpace(char c)
+		{
+			return c == ' ' || c == '\t' || c == '\n' || c == 0x0B
+				|| c == '\f' || c == '\r';
+		}
+	}
+
+	/**
+	 * The documents as bags of words
+	 */
+	public synchronized WordBags getWordBags()
+	{
+		if (wordBags == null)
+			wordBags = new WordBags(this);
+		return wordBags;
+	}
+}
@@ -0,0 +1,246 @@
+package utility;
+
+/**
+ * jLDADMM: A Java package for the LDA and DMM topic models
+ *
+ * Samples the cluster of a document in DMM, from its probability given the
+ * other documents:
+ *
+ * (m_t + alpha) * prod_w (n_tw + beta)_(c_w) / (n_t + betaSum)_(N)
+ *
+ * where m_t is the number of documents in cluster t, n_tw and n_t the number
+ * of times word type w, and any word, is assigned to t, c_w the number of
+ * times w occurs in the document, N the length of the document, and (x)_(c)
+ * the rising factorial x (x + 1) ... (x + c - 1).
+ *
+ * The product of hundreds of ratios underflows to zero for long documents,
+ * which leaves every topic with probability zero, so topics are scored in log
+ * space instead. The logarithm of a rising factorial is a difference of
+ * cumulative sums of logarithms,
+ *
+ * log (n + beta)_(c) = L(n + c) - L(n), with L(n) = sum_{k < n} log(beta + k)
+ *
+ * i.e. lgamma(beta + n) - lgamma(beta), which are cached in tables indexed by
+ * the integer count n, so every word type of the document costs two lookups
+ * whatever its count, and the document's length two more. Once all topics are
+ * scored, they are shifted by the largest score, so the most likely topic has
+ * probability 1, and exponentiated once.
+ *
+ * Taking the exponential of every topic costs more than the plain product of
+ * a short document, though, so documents are first scored with the product,
+ * which is only computed again in log space if it went out of range. Once a
+ * document has, documents at least as long are scored in log space directly.
+ *
+ * Only the non-empty clusters are scored one by one (see ActiveClusters):
+ * every empty cluster has the probability alpha * prod_w (beta)_(c_w) /
+ * (betaSum)_(N), so they are scored together as one term of that probability
+ * times their number, and if that term is sampled, one of them is picked
+ * uniformly at random.
+ *
+ * Samplers which only compare a few clusters for a document read the
+ * log-probability of one cluster with logScore instead.
+ *
+ * The tables are extended as the counts grow, and the scorer keeps scratch
+ * space of its own, so every thread needs its own scorer.
+ */
+
+public class DMMScorer
+{
+	// Scores computed as plain products are kept if the most likely topic is
+	// at least MIN_LINEAR: topics which underflowed are then less likely by a
+	// factor of 2^-400 or more, which makes no difference to sampling
+	private static final double MIN_LINEAR = 0x1p-600;
+
+	private int numTopics;
+	private double alpha;
+	private double beta;
+	private double betaSum;
+	// Stream the topics are sampled with
+	private RandomStream random;
+	// Log-probability, then probability, of every non-empty cluster for the
+	// current document, followed by that of all empty clusters
+	private double[] pros;
+
+	// logRising[n] = sum_{k < n} log(beta + k), logRisingSum[n] = sum_{k < n}
+	// log(betaSum + k) for n < tableSize, which is above every topic's total
+	// count plus the length of the document
+	private int tableSize;
+	private double[] logRising;
+	private double[] logRisingSum;
+	// logClusters[m] = log(m + alpha) for m < logClusters.length
+	private double[] logClusters;
+	// Length of the shortest document whose product went out of range, from
+	// which documents are scored in log space straight away
+	private int minLogSize = Integer.MAX_VALUE;
+
+	/**
+	 * @param random The stream to sample topics with, which the scorer must
+	 *            not share with another thread.
+	 */
+	public DMMScorer(int numTopics, double alpha, double beta, double betaSum,
+		RandomStream random)
+	{
+		this.numTopics = numTopics;
+		this.alpha = alpha;
+		this.beta = beta;
+		this.betaSum = betaSum;
+		this.random = random;
+		pros = new double[numTopics];
+		tableSize = 1;
+		logRising = new double[1];
+		logRisingSum = new double[1];
+		logClusters = new double[0];
+	}
+
+	/**
+	 * Sample a topic for the document whose distinct word types and their
+	 * counts are bagWords[bagStart ... bagEnd - 1] and bagCounts[bagStart ...
+	 * bagEnd - 1], of docSize words, given counts leaving out the document
+	 * itself, of which active holds the non-empty clusters. The non-empty
+	 * clusters are scored one by one, and the empty ones all at once.
+	 */
+	public int sample(ActiveClusters active, int[] clusterCounts,
+		int[][] topicWordCount, int[] sumTopicWordCount, int[] bagWords,
+		int[] bagCounts, int bagStart, int bagEnd, int docSize)
+	{
+		int numActive = active.size();
+		int numEmpty = active.numEmpty();
+		// Scores of the non-empty clusters, then of all empty ones
+		int numScores = numEmpty > 0 ? numActive + 1 : numActive;
+
+		if (docSize >= minLogSize || !scoreLinear(active, clusterCounts,
+			topicWordCount, sumTopicWordCount, bagWords, bagCounts, bagStart,
+			bagEnd)) {
+			minLogSize = Math.min(minLogSize, docSize);
+			scoreLog(active, clusterCounts, topicWordCount, sumTopicWordCount,
+				bagWords, bagCounts, bagStart, bagEnd, docSize);
+			FuncUtils.expShifted(pros, numScores);
+		}
+
+		int i = FuncUtils.nextDiscrete(pros, numScores, random);
+		if (i < numActive)
+			return active.get(i);
+		return active.getEmpty(random.nextInt(numEmpty));
+	}
+
+	/**
+	 * Score the clusters with the plain product, and tell whether the most
+	 * likely one is still in range
+	 */
+	private boolean scoreLinear(ActiveClusters active, int[] clusterCounts,
+		int[][] topicWordCount, int[] sumTopicWordCount, int[] bagWords,
+		int[] bagCounts, int bagStart, int bagEnd)
+	{
+		int numActive = active.size();
+		double max = 0.0;
+		for (int i = 0; i < numActive; i++) {
+			int tIndex = active.get(i);
+			pros[i] = product(clusterCounts[tIndex], topicWordCount[tIndex],
+				sumTopicWordCount[tIndex], bagWords, bagCounts, bagStart,
+				bagEnd);
+			max = Math.max(max, pros[i]);
+		}
+		if (active.numEmpty() > 0) {
+			pros[numActive] = active.numEmpty()
+				* product(0, null, 0, bagWords, bagCounts, bagStart, bagEnd);
+			max = Math.max(max, pros[numActive]);
+		}
+		return max >= MIN_LINEAR;
+	}
+
+	/**
+	 * Probability of a cluster of the given counts, with wordCounts null for
+	 * an empty cluster
+	 */
+	private double product(int clusterCount, int[] wordCounts, int total,
+		int[] bagWords, int[] bagCounts, int bagStart, int bagEnd)
+	{
+		// Every numerator is divided by the next factor of the denominator,
+		// so as to keep the product in range for as long as possible
+		double denominator = total + betaSum;
+		double pro = clusterCount + alpha;
+		for (int i = bagStart; i < bagEnd; i++) {
+			double numerator = wordCounts == null ? beta
+				: wordCounts[bagWords[i]] + beta;
+			for (int j = 0; j < bagCounts[i]; j++)
+				pro *= (numerator + j) / denominator++;
+		}
+		return pro;
+	}
+
+	/**
+	 * Score the clusters with the logarithm of the product
+	 */
+	private void scoreLog(ActiveClusters active, int[] clusterCounts,
+		int[][] topicWordCount, int[] sumTopicWordCount, int[] bagWords,
+		int[] bagCounts, int bagStart, int bagEnd, int docSize)
+	{
+		int numActive = active.size();
+		for (int i = 0; i < numActive; i++) {
+			int tIndex = active.get(i);
+			pros[i] = logScore(clusterCounts[tIndex], topicWordCount[tIndex],
+				sumTopicWordCount[tIndex], bagWords, bagCounts, bagStart,
+				bagEnd, docSize);
+		}
+		if (active.numEmpty() > 0)
+			pros[numActive] = Math.log(active.numEmpty())
+				+ logScore(0, null, 0, bagWords, bagCounts, bagStart, bagEnd,
+					docSize);
+	}
+
+	/**
+	 * Logarithm of the unnormalized probability of a cluster of the given
+	 * counts for the document, with wordCounts null for an empty cluster
+	 */
+	public double logScore(int clusterCount, int[] wordCounts, int total,
+		int[] bagWords, int[] bagCounts, int bagStart, int bagEnd, int docSize)
+	{
+		// A cluster's count of a word type is at most its total, so the
+		// total's bound covers both tables
+		if (total + docSize >= tableSize)
+			extendRising(total + docSize + 1);
+		if (clusterCount >= logClusters.length)
+			extendClusters(clusterCount + 1);
+
+		double pro = logClusters[clusterCount]
+			- (logRisingSum[total + docSize] - logRisingSum[total]);
+		for (int i = bagStart; i < bagEnd; i++) {
+			int count = wordCounts == null ? 0 : wordCounts[bagWords[i]];
+			pro += logRising[count + bagCounts[i]] - logRising[count];
+		}
+		return pro;
+	}
+
+	/**
+	 * Extend the rising factorial tables to at least size entries
+	 */
+	private void extendRising(int size)
+	{
+		int newSize = Math.max(size, 2 * tableSize);
+		double[] newRising = new double[newSize];
+		double[] newRisingSum = new double[newSize];
+		System.arraycopy(logRising, 0, newRising, 0, tableSize);
+		System.arraycopy(logRisingSum, 0, newRisingSum, 0, tableSize);
+		for (int n = tableSize; n < newSize; n++) {
+			newRising[n] = newRising[n - 1] + Math.log(beta + n - 1);
+			newRisingSum[n] = newRisingSum[n - 1] + Math.log(betaSum + n - 1);
+		}
+		logRising = newRising;
+		logRisingSum = newRisingSum;
+		tableSize = newSize;
+	}
+
+	/**
+	 * Extend the cluster size table to at least size entries
+	 */
+	private void extendClusters(int size)
+	{
+		int oldSize = logClusters.length;
+		int newSize = Math.max(size, 2 * oldSize);
+		double[] newClusters = new double[newSize];
+		System.arraycopy(logClusters, 0, newClusters, 0, oldSize);
+		for (int m = oldSize; m < newSize; m++)
+			newClusters[m] = Math.log(m + alpha);
+		logClusters = newClusters;
+	}
+}
@@ -0,0 +1,48 @@
+package utility;
+
+/**
+ * jLDADMM: A Java package for the LDA and DMM topic models
+ *
+ * Topic-word counts stored as a dense numTopics * vocabularySize matrix, one
+ * row per topic.
+ */
+
+public class DenseTopicWordCounts
+	extends TopicWordCounts
+{
+	private int[][] counts;
+
+	public DenseTopicWordCounts(int numTopics, int vocabularySize)
+	{
+		super(numTopics, vocabularySize);
+		counts = new int[numTopics][vocabularySize];
+	}
+
+	public int get(int topic, int word)
+	{
+		return counts[topic][word];
+	}
+
+	public void add(int topic, int word, int delta)
+	{
+		counts[topic][word] += delta;
+	}
+
+	public void getWord(int word, int[] wordCounts)
+	{
+		for (int tIndex = 0; tIndex < numTopics; tIndex++)
+			wordCounts[tIndex] = counts[tIndex][word];
+	}
+
+	public void getTopic(int topic, int[] topicCounts)
+	{
+		System.arraycopy(counts[topic], 0, topicCounts, 0, vocabularySize);
+	}
+
+	public void copyFrom(TopicWordCounts other)
+	{
+		int[][] otherCounts = ((DenseTopicWordCounts) other).counts;
+		for (int i = 0; i < counts.length; i++)
+			System.arraycopy(otherCounts[i], 0, counts[i], 0, counts[i].length);
+	}
+}
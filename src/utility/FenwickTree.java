@@ -0,0 +1,100 @@
+package utility;
+
+/**
+ * jLDADMM: A Java package for the LDA and DMM topic models
+ *
+ * Fenwick (binary indexed) tree over n non-negative weights, as used by the
+ * F+tree of:
+ *
+ * Hsiang-Fu Yu, Cho-Jui Hsieh, Hyokun Yun, S.V.N. Vishwanathan and Inderjit S.
+ * Dhillon. 2015. A Scalable Asynchronous Distributed Algorithm for Topic
+ * Modeling. In Proceedings of the 24th International Conference on World Wide
+ * Web, pages 1340–1350.
+ *
+ * Changing a weight and drawing an index with probability proportional to its
+ * weight both take O(log n) time, instead of the O(n) of a linear scan.
+ */
+
+public class FenwickTree
+{
+	private double[] weights;
+	private double[] tree; // tree[i] is the sum of weights (i - (i & -i), i]
+	private int topBit; // Largest power of 2 not greater than n
+
+	public FenwickTree(int n)
+	{
+		weights = new double[n];
+		tree = new double[n + 1];
+		topBit = Integer.highestOneBit(Math.max(n, 1));
+	}
+
+	/**
+	 * Replace all weights in O(n) time
+	 */
+	public void build(double[] newWeights)
+	{
+		int n = weights.length;
+		System.arraycopy(newWeights, 0, weights, 0, n);
+		for (int i = 1; i <= n; i++)
+			tree[i] = weights[i - 1];
+		for (int i = 1; i <= n; i++) {
+			int parent = i + (i & -i);
+			if (parent <= n)
+				tree[parent] += tree[i];
+		}
+	}
+
+	public double get(int index)
+	{
+		return weights[index];
+	}
+
+	public void set(int index, double weight)
+	{
+		double delta = weight - weights[index];
+		weights[index] = weight;
+		for (int i = index + 1; i < tree.length; i += i & -i)
+			tree[i] += delta;
+	}
+
+	/**
+	 * Sum of all weights
+	 */
+	public double total()
+	{
+		double sum = 0.0;
+		for (int i = weights.length; i > 0; i -= i & -i)
+			sum += tree[i];
+		return sum;
+	}
+
+	/**
+	 * Index of the weight that u falls into, for 0 <= u < total(), i.e. the
+	 * smallest index whose cumulative weight exceeds u
+	 */
+	public int find(double u)
+	{
+		int position = 0;
+		for (int step = topBit; step > 0; step >>= 1) {
+			int next = position + step;
+			if (next < tree.length && tree[next] <= u) {
+				position = next;
+				u -= tree[next];
+			}
+		}
+		// Guard against rounding errors past the last non-zero weight
+		if (position == weights.length)
+			position--;
+		while (position > 0 && weights[position] == 0.0)
+			position--;
+		return position;
+	}
+
+	/**
+	 * Draw an index with probability proportional to its weight
+	 */
+	public int sample(RandomStream random)
+	{
+		return find(random.nextDouble() * total());
+	}
+}
@@ -50,26 +50,160 @@ public class FuncUtils
     }
 
     /**
-     * Sample a value from a double array
+     * Sample a value from a double array, using the shared MTRandom generator
      * 
      * @param probs
      * @return
      */
     public static int nextDiscrete(double[] probs)
+    {
+        return nextDiscrete(probs, probs.length, MTRandom.nextDouble());
+    }
+
+    /**
+     * Sample a value from a double array, using the given random stream
+     */
+    public static int nextDiscrete(double[] probs, RandomStream random)
+    {
+        return nextDiscrete(probs, probs.length, random.nextDouble());
+    }
+
+    /**
+     * Sample a value from the first length entries of a double array, using
+     * the given random stream
+     */
+    public static int nextDiscrete(double[] probs, int length,
+        RandomStream random)
+    {
+        return nextDiscrete(probs, length, random.nextDouble());
+    }
+
+    /**
+     * Replace every logarithm in values by its exponential, after subtracting
+     * the largest one, so that the largest becomes 1 and none overflows;
+     * returns the sum of the results
+     */
+    public static double expShifted(double[] values)
+    {
+        return expShifted(values, values.length);
+    }
+
+    /**
+     * expShifted on the first length entries of values
+     */
+    public static double expShifted(double[] values, int length)
+    {
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < length; i++)
+            max = Math.max(max, values[i]);
+
+        double sum = 0.0;
+        for (int i = 0; i < length; i++) {
+            values[i] = Math.exp(values[i] - max);
+            sum += values[i];
+        }
+        return sum;
+    }
+
+    private static int nextDiscrete(double[] probs, int length, double u)
     {
         double sum = 0.0;
-        for (int i = 0; i < probs.length; i++)
+        for (int i = 0; i < length; i++)
             sum += probs[i];
 
-        double r = MTRandom.nextDouble() * sum;
+        double r = u * sum;
 
         sum = 0.0;
-        for (int i = 0; i < probs.length; i++) {
+        for (int i = 0; i < length; i++) {
             sum += probs[i];
             if (sum > r)
                 return i;
         }
-        return probs.length - 1;
+        return length - 1;
+    }
+
+    /**
+     * Sample an index given cumulative unnormalized probabilities, i.e.
+     * cumulative[i] = probs[0] + ... + probs[i], by binary search. Returns the
+     * same index as nextDiscrete(probs) for the same random number.
+     */
+    public static int nextDiscreteCumulative(double[] cumulative,
+        RandomStream random)
+    {
+        double r = random.nextDouble() * cumulative[cumulative.length - 1];
+
+        int low = 0;
+        int high = cumulative.length - 1;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (cumulative[middle] > r)
+                high = middle;
+            else
+                low = middle + 1;
+        }
+        return low;
+    }
+
+    /**
+     * Build Walker's alias table for the n weights starting at weights[offset],
+     * into prob[offset ... offset + n - 1] and alias[offset ... offset + n - 1]
+     * 
+     * @param weights Non-negative weights, not all zero
+     * @param work Scratch space of at least n ints
+     */
+    public static void buildAliasTable(double[] weights, int offset, int n,
+        double[] prob, int[] alias, int[] work)
+    {
+        double sum = 0.0;
+        for (int i = 0; i < n; i++)
+            sum += weights[offset + i];
+
+        // Indices of entries below the mean fill work from the front, and
+        // indices of entries above it from the back
+        int numSmall = 0, firstLarge = n;
+        for (int i = 0; i < n; i++) {
+            prob[offset + i] = weights[offset + i] * n / sum;
+            if (prob[offset + i] < 1.0)
+                work[numSmall++] = i;
+            else
+                work[--firstLarge] = i;
+        }
+        while (numSmall > 0 && firstLarge < n) {
+            int small = work[--numSmall];
+            int large = work[firstLarge];
+            alias[offset + small] = large;
+            prob[offset + large] -= 1.0 - prob[offset + small];
+            if (prob[offset + large] < 1.0) {
+                firstLarge++;
+                work[numSmall++] = large;
+            }
+        }
+        // Whatever is left over is 1 up to rounding errors
+        while (numSmall > 0) {
+            int i = work[--numSmall];
+            prob[offset + i] = 1.0;
+            alias[offset + i] = i;
+        }
+        for (int i = firstLarge; i < n; i++) {
+            prob[offset + work[i]] = 1.0;
+            alias[offset + work[i]] = work[i];
+        }
+    }
+
+    /**
+     * Sample a value from an alias table built by buildAliasTable, in constant
+     * time
+     * 
+     * @return A value between 0 and n - 1
+     */
+    public static int nextAlias(double[] prob, int[] alias, int offset, int n,
+        RandomStream random)
+    {
+        double r = random.nextDouble() * n;
+        int i = (int) r;
+        if (i == n) // Guard against rounding up
+            i--;
+        return (r - i < prob[offset + i]) ? i : alias[offset + i];
     }
 
     public static double mean(double[] m)
@@ -1,5 +1,13 @@
 package utility;
 
+/**
+ * jLDADMM: A Java package for the LDA and DMM topic models
+ *
+ * One Mersenne Twister shared by the whole JVM, behind a lock. The models
+ * draw from their own {@link RandomStream} instead; this is kept for other
+ * code.
+ */
+
 public class MTRandom
 {
 
@@ -0,0 +1,34 @@
+package utility;
+
+/**
+ * jLDADMM: A Java package for the LDA and DMM topic models
+ *
+ * Random stream backed by a Mersenne Twister, as used by {@link MTRandom}.
+ * Split streams are seeded with a number drawn from this one.
+ */
+
+public class MersenneTwisterStream
+	extends RandomStream
+{
+	private MersenneTwister random;
+
+	public MersenneTwisterStream(long seed)
+	{
+		random = new MersenneTwister(seed);
+	}
+
+	public double nextDouble()
+	{
+		return random.nextDouble();
+	}
+
+	public int nextInt(int n)
+	{
+		return random.nextInt(n);
+	}
+
+	public RandomStream split()
+	{
+		return new MersenneTwisterStream(random.nextLong());
+	}
+}
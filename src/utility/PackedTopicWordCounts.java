@@ -0,0 +1,101 @@
+package utility;
+
+import java.util.Arrays;
+
+/**
+ * jLDADMM: A Java package for the LDA and DMM topic models
+ *
+ * Topic-word counts stored as one row of packed (count, topic) entries per
+ * word type, sorted by descending count, in the style of Mallet's
+ * typeTopicCounts. A word type occurring n times takes room for at most
+ * min(numTopics, n) entries, so the whole matrix takes at most one long per
+ * word of the corpus, however large the vocabulary.
+ *
+ * Looking up a single count scans the row of the word, so samplers should
+ * rather iterate over the rows, whose heaviest topics come first.
+ */
+
+public class PackedTopicWordCounts
+	extends TopicWordCounts
+{
+	// Non-zero topic counts of every word type
+	public SortedSparseCounts wordTopicCount;
+
+	// Word types and counts of every topic, by ascending word: the entries of
+	// topic t are at topicOffsets[t] ... topicOffsets[t + 1] - 1. Built from
+	// wordTopicCount when a topic is first read after the counts changed.
+	private int[] topicOffsets;
+	private int[] topicWords;
+	private int[] topicCounts;
+	private boolean topicsValid = false;
+
+	public PackedTopicWordCounts(int numTopics, int[] wordFrequency)
+	{
+		super(numTopics, wordFrequency.length);
+		int[] capacities = new int[vocabularySize];
+		for (int w = 0; w < vocabularySize; w++)
+			capacities[w] = Math.min(numTopics, wordFrequency[w]);
+		wordTopicCount = new SortedSparseCounts(capacities);
+	}
+
+	public int get(int topic, int word)
+	{
+		return wordTopicCount.get(word, topic);
+	}
+
+	public void add(int topic, int word, int delta)
+	{
+		wordTopicCount.add(word, topic, delta);
+		topicsValid = false;
+	}
+
+	public void getWord(int word, int[] counts)
+	{
+		Arrays.fill(counts, 0, numTopics, 0);
+		wordTopicCount.getRow(word, counts);
+	}
+
+	public void getTopic(int topic, int[] counts)
+	{
+		if (!topicsValid)
+			indexTopics();
+		Arrays.fill(counts, 0, vocabularySize, 0);
+		for (int i = topicOffsets[topic]; i < topicOffsets[topic + 1]; i++)
+			counts[topicWords[i]] = topicCounts[i];
+	}
+
+	public void copyFrom(TopicWordCounts other)
+	{
+		wordTopicCount.copyFrom(((PackedTopicWordCounts) other).wordTopicCount);
+		topicsValid = false;
+	}
+
+	/**
+	 * Transpose the rows of all word types into rows of all topics, with a
+	 * counting sort
+	 */
+	private void indexTopics()
+	{
+		int numEntries = 0;
+		topicOffsets = new int[numTopics + 1];
+		for (int w = 0; w < vocabularySize; w++) {
+			for (int i = 0; i < wordTopicCount.size(w); i++)
+				topicOffsets[wordTopicCount.topic(w, i) + 1]++;
+			numEntries += wordTopicCount.size(w);
+		}
+		for (int t = 0; t < numTopics; t++)
+			topicOffsets[t + 1] += topicOffsets[t];
+
+		topicWords = new int[numEntries];
+		topicCounts = new int[numEntries];
+		int[] next = Arrays.copyOf(topicOffsets, numTopics);
+		for (int w = 0; w < vocabularySize; w++) {
+			for (int i = 0; i < wordTopicCount.size(w); i++) {
+				int j = next[wordTopicCount.topic(w, i)]++;
+				topicWords[j] = w;
+				topicCounts[j] = wordTopicCount.count(w, i);
+			}
+		}
+		topicsValid = true;
+	}
+}
@@ -0,0 +1,62 @@
+package utility;
+
+/**
+ * jLDADMM: A Java package for the LDA and DMM topic models
+ *
+ * Source of random numbers for one thread of one model. Every model owns its
+ * own stream, created from a seed, and every worker thread of a model draws
+ * from its own stream, split from the model's in a fixed order, so that runs
+ * with the same seed and number of threads draw the same numbers, and no
+ * thread ever waits for another to get a random number. Streams are not
+ * meant to be shared between threads.
+ *
+ * - "splittable" (default) is java.util.SplittableRandom, which is
+ * unsynchronized and splits into statistically independent streams;
+ *
+ * - "mt" is the Mersenne Twister that {@link MTRandom} used for all models,
+ * which draws the same numbers as MTRandom seeded with the same seed.
+ */
+
+public abstract class RandomStream
+{
+	/**
+	 * Create the stream with the given name.
+	 * @param generator The generator name: "splittable" or "mt".
+	 * @param seed The seed.
+	 */
+	public static RandomStream create(String generator, long seed)
+	{
+		if (generator == null || generator.equals("splittable"))
+			return new SplittableRandomStream(seed);
+		else if (generator.equals("mt"))
+			return new MersenneTwisterStream(seed);
+		else
+			throw new IllegalArgumentException("Unknown random generator: "
+				+ generator);
+	}
+
+	/**
+	 * A seed taken from the clock, for runs that are not given one
+	 */
+	public static long newSeed()
+	{
+		long seed = System.currentTimeMillis() ^ System.nanoTime();
+		return seed != 0 ? seed : 1;
+	}
+
+	/**
+	 * Uniformly distributed double in [0, 1)
+	 */
+	public abstract double nextDouble();
+
+	/**
+	 * Uniformly distributed int in [0, n)
+	 */
+	public abstract int nextInt(int n);
+
+	/**
+	 * A new stream, independent from this one and derived deterministically
+	 * from its current state, e.g. for a worker thread
+	 */
+	public abstract RandomStream split();
+}
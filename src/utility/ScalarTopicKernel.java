@@ -0,0 +1,39 @@
+package utility;
+
+/**
+ * jLDADMM: A Java package for the LDA and DMM topic models
+ *
+ * Plain Java topic kernel, in double precision. LDA keeps 1 / denominator for
+ * every topic, so that scoring a topic takes no division.
+ */
+
+public class ScalarTopicKernel
+	extends TopicKernel
+{
+	private double[] inverseDenominators;
+	private double[] cumulative;
+
+	public ScalarTopicKernel(int numTopics)
+	{
+		super(numTopics);
+		inverseDenominators = new double[numTopics];
+		cumulative = new double[numTopics];
+	}
+
+	public void setDenominator(int topic, double denominator)
+	{
+		inverseDenominators[topic] = 1.0 / denominator;
+	}
+
+	public int sampleLDA(int[] docCounts, int[] wordCounts, double alpha,
+		double beta)
+	{
+		double sum = 0.0;
+		for (int tIndex = 0; tIndex < numTopics; tIndex++) {
+			sum += (docCounts[tIndex] + alpha) * (wordCounts[tIndex] + beta)
+				* inverseDenominators[tIndex];
+			cumulative[tIndex] = sum;
+		}
+		return FuncUtils.nextDiscreteCumulative(cumulative, random);
+	}
+}
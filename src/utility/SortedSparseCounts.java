@@ -0,0 +1,168 @@
+package utility;
+
+import java.util.Arrays;
+
+/**
+ * jLDADMM: A Java package for the LDA and DMM topic models
+ *
+ * Rows of sparse topic counts, e.g. the topics assigned to the occurrences of
+ * a word type, or to the words of a document.
+ *
+ * Every non-zero count of a row is packed together with its topic into one
+ * long (count in the high 32 bits, topic in the low 32 bits), and the entries
+ * of a row are kept sorted by descending count, so that scanning a row visits
+ * the heaviest topics first (as in Mallet's typeTopicCounts). All rows share
+ * one flat array, and each row has a fixed capacity which must be at least
+ * the number of distinct topics the row can hold at any one time, e.g.
+ * min(numTopics, number of tokens of the word type).
+ */
+
+public class SortedSparseCounts
+{
+	private long[] entries; // Packed (count, topic) entries of all rows
+	private int[] rowOffsets; // Offset of the first entry of every row
+	private int[] rowSizes; // Number of non-zero entries of every row
+
+	public SortedSparseCounts(int[] rowCapacities)
+	{
+		rowOffsets = new int[rowCapacities.length + 1];
+		for (int row = 0; row < rowCapacities.length; row++)
+			rowOffsets[row + 1] = rowOffsets[row] + rowCapacities[row];
+		entries = new long[rowOffsets[rowCapacities.length]];
+		rowSizes = new int[rowCapacities.length];
+	}
+
+	public int numRows()
+	{
+		return rowSizes.length;
+	}
+
+	/**
+	 * Number of topics with a non-zero count in a row
+	 */
+	public int size(int row)
+	{
+		return rowSizes[row];
+	}
+
+	/**
+	 * Topic of the i^{th} largest count of a row
+	 */
+	public int topic(int row, int i)
+	{
+		return (int) entries[rowOffsets[row] + i];
+	}
+
+	/**
+	 * The i^{th} largest count of a row
+	 */
+	public int count(int row, int i)
+	{
+		return (int) (entries[rowOffsets[row] + i] >>> 32);
+	}
+
+	/**
+	 * Count of a topic in a row, found by a linear scan of the row
+	 */
+	public int get(int row, int topic)
+	{
+		for (int i = rowOffsets[row], end = i + rowSizes[row]; i < end; i++) {
+			if ((int) entries[i] == topic)
+				return (int) (entries[i] >>> 32);
+		}
+		return 0;
+	}
+
+	/**
+	 * Add delta to the count of a topic in a row, keeping the row sorted and
+	 * dropping the topic from the row once its count reaches zero.
+	 */
+	public void add(int row, int topic, int delta)
+	{
+		int start = rowOffsets[row];
+		int end = start + rowSizes[row];
+		int i = start;
+		while (i < end && (int) entries[i] != topic)
+			i++;
+
+		long count = (i < end ? entries[i] >>> 32 : 0) + delta;
+		if (count < 0)
+			throw new IllegalStateException("Negative count for topic "
+				+ topic + " in row " + row);
+		if (i == end) {
+			if (delta == 0)
+				return;
+			if (end == rowOffsets[row + 1])
+				throw new IllegalStateException("Row " + row + " is full");
+			rowSizes[row]++;
+			end++;
+		}
+
+		long entry = (count << 32) | topic;
+		// Move the entry towards the front while it outweighs its predecessor...
+		while (i > start && entries[i - 1] < entry) {
+			entries[i] = entries[i - 1];
+			i--;
+		}
+		// ... or towards the back while its successor outweighs it
+		while (i + 1 < end && entries[i + 1] > entry) {
+			entries[i] = entries[i + 1];
+			i++;
+		}
+		entries[i] = entry;
+
+		// A zero count sorts after every non-zero one, i.e. at the end
+		if (count == 0)
+			rowSizes[row]--;
+	}
+
+	/**
+	 * Overwrite all rows with those of other, which must have been created
+	 * with the same row capacities
+	 */
+	public void copyFrom(SortedSparseCounts other)
+	{
+		System.arraycopy(other.entries, 0, entries, 0, entries.length);
+		System.arraycopy(other.rowSizes, 0, rowSizes, 0, rowSizes.length);
+	}
+
+	/**
+	 * Copy the counts of a row into a dense array indexed by topic, whose
+	 * other entries are left unchanged (normally zero)
+	 */
+	public void getRow(int row, int[] counts)
+	{
+		for (int i = rowOffsets[row], end = i + rowSizes[row]; i < end; i++)
+			counts[(int) entries[i]] = (int) (entries[i] >>> 32);
+	}
+
+	/**
+	 * Replace a row with the counts in a dense array indexed by topic, and
+	 * reset them to zero. Only the topics listed in topics[from] ...
+	 * topics[to - 1] (possibly more than once) are looked at, so that a row of
+	 * a document can be stored in time linear in the length of the document.
+	 */
+	public void setRow(int row, int[] counts, int[] topics, int from, int to)
+	{
+		int start = rowOffsets[row];
+		int end = start;
+		for (int i = from; i < to; i++) {
+			int topic = topics[i];
+			if (counts[topic] != 0) {
+				if (end == rowOffsets[row + 1])
+					throw new IllegalStateException("Row " + row + " is full");
+				entries[end++] = ((long) counts[topic] << 32) | topic;
+				counts[topic] = 0;
+			}
+		}
+		rowSizes[row] = end - start;
+
+		// Sort by descending count
+		Arrays.sort(entries, start, end);
+		for (int i = start, j = end - 1; i < j; i++, j--) {
+			long entry = entries[i];
+			entries[i] = entries[j];
+			entries[j] = entry;
+		}
+	}
+}
@@ -0,0 +1,40 @@
+package utility;
+
+import java.util.SplittableRandom;
+
+/**
+ * jLDADMM: A Java package for the LDA and DMM topic models
+ *
+ * Random stream backed by an unsynchronized java.util.SplittableRandom.
+ */
+
+public class SplittableRandomStream
+	extends RandomStream
+{
+	private SplittableRandom random;
+
+	public SplittableRandomStream(long seed)
+	{
+		random = new SplittableRandom(seed);
+	}
+
+	private SplittableRandomStream(SplittableRandom random)
+	{
+		this.random = random;
+	}
+
+	public double nextDouble()
+	{
+		return random.nextDouble();
+	}
+
+	public int nextInt(int n)
+	{
+		return random.nextInt(n);
+	}
+
+	public RandomStream split()
+	{
+		return new SplittableRandomStream(random.split());
+	}
+}
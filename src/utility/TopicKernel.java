@@ -0,0 +1,105 @@
+package utility;
+
+import java.io.PrintStream;
+
+/**
+ * jLDADMM: A Java package for the LDA and DMM topic models
+ *
+ * Computes the unnormalized probabilities of all topics for one word in LDA,
+ * and samples a topic from them. This per-topic loop is where the dense
+ * sampler spends almost all of its time, and every topic is scored
+ * independently, so it can be computed with SIMD instructions:
+ *
+ * - "scalar" (default) is plain Java, in double precision;
+ *
+ * - "vector" uses the Java Vector API (jdk.incubator.vector), in double
+ * precision;
+ *
+ * - "vector32" uses the Java Vector API in single precision, which fits
+ * twice as many topics in a vector.
+ *
+ * The Vector API module has to be added when running java, with
+ * "--add-modules jdk.incubator.vector"; without it, the scalar kernel is used.
+ */
+
+public abstract class TopicKernel
+{
+	protected int numTopics;
+	// Stream the topics are sampled with
+	protected RandomStream random;
+
+	protected TopicKernel(int numTopics)
+	{
+		this.numTopics = numTopics;
+	}
+
+	/**
+	 * Create the kernel with the given name, falling back to the scalar kernel
+	 * if the Vector API is unavailable.
+	 * @param name The kernel name: "scalar", "vector" or "vector32".
+	 * @param numTopics The number of topics.
+	 * @param random The stream to sample topics with, which the kernel must
+	 *            not share with another thread.
+	 * @param logStream Where to report a fall back, or null.
+	 */
+	public static TopicKernel create(String name, int numTopics,
+		RandomStream random, PrintStream logStream)
+	{
+		TopicKernel kernel;
+		if (name == null || name.equals("scalar"))
+			kernel = new ScalarTopicKernel(numTopics);
+		else if (name.equals("vector") || name.equals("vector32")) {
+			try {
+				kernel = (TopicKernel) Class
+					.forName("utility.vector.VectorTopicKernel")
+					.getConstructor(int.class, boolean.class)
+					.newInstance(numTopics, name.equals("vector32"));
+			}
+			catch (ReflectiveOperationException | LinkageError e) {
+				if (logStream != null)
+					logStream.println("Vector API unavailable (run java with "
+						+ "--add-modules jdk.incubator.vector), using the "
+						+ "scalar kernel");
+				kernel = new ScalarTopicKernel(numTopics);
+			}
+		}
+		else
+			throw new IllegalArgumentException("Unknown kernel: " + name);
+		kernel.random = random;
+		return kernel;
+	}
+
+	/**
+	 * Set the denominator n_t + betaSum of the LDA probability of a topic
+	 */
+	public abstract void setDenominator(int topic, double denominator);
+
+	/**
+	 * Sample a topic for a word in LDA, with probability proportional to
+	 * (docCounts[t] + alpha) * (wordCounts[t] + beta) / denominator_t, where
+	 * docCounts and wordCounts are the counts of the word's document and of
+	 * the word type, leaving out the word itself.
+	 */
+	public abstract int sampleLDA(int[] docCounts, int[] wordCounts,
+		double alpha, double beta);
+
+	/**
+	 * Single precision version of FuncUtils.nextDiscreteCumulative: index of
+	 * the first cumulative probability above a uniform random number between
+	 * zero and the total, found by binary search
+	 */
+	protected int nextDiscreteCumulative(float[] cumulative, int n)
+	{
+		double r = random.nextDouble() * cumulative[n - 1];
+		int low = 0;
+		int high = n - 1;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (cumulative[middle] > r)
+				high = middle;
+			else
+				low = middle + 1;
+		}
+		return low;
+	}
+}
@@ -0,0 +1,81 @@
+package utility;
+
+/**
+ * jLDADMM: A Java package for the LDA and DMM topic models
+ *
+ * numTopics * vocabularySize matrix of topic-word counts, i.e. the number of
+ * times each word type is assigned to each topic. Implementations differ in
+ * how the matrix is laid out in memory:
+ *
+ * - "dense" stores one int per topic and word type, topic by topic;
+ *
+ * - "wordmajor" stores one int per topic and word type, word by word, so that
+ * the counts of a word are contiguous;
+ *
+ * - "packed" only stores the non-zero counts of every word type, sorted by
+ * descending count (see {@link SortedSparseCounts}), which takes far less
+ * memory for large vocabularies, where most words are rare and so only
+ * assigned to a few topics.
+ */
+
+public abstract class TopicWordCounts
+{
+	protected int numTopics;
+	protected int vocabularySize;
+
+	protected TopicWordCounts(int numTopics, int vocabularySize)
+	{
+		this.numTopics = numTopics;
+		this.vocabularySize = vocabularySize;
+	}
+
+	/**
+	 * Create the storage with the given name.
+	 * @param storage The storage name: "dense", "wordmajor" or "packed".
+	 * @param numTopics The number of topics.
+	 * @param wordFrequency Number of occurrences of every word type, which
+	 *            bounds the number of topics it can be assigned to.
+	 */
+	public static TopicWordCounts create(String storage, int numTopics,
+		int[] wordFrequency)
+	{
+		if (storage == null || storage.equals("dense"))
+			return new DenseTopicWordCounts(numTopics, wordFrequency.length);
+		else if (storage.equals("wordmajor"))
+			return new WordMajorTopicWordCounts(numTopics,
+				wordFrequency.length);
+		else if (storage.equals("packed"))
+			return new PackedTopicWordCounts(numTopics, wordFrequency);
+		else
+			throw new IllegalArgumentException("Unknown topic-word storage: "
+				+ storage);
+	}
+
+	/**
+	 * Number of times a word type is assigned to a topic
+	 */
+	public abstract int get(int topic, int word);
+
+	/**
+	 * Add delta to the number of times a word type is assigned to a topic
+	 */
+	public abstract void add(int topic, int word, int delta);
+
+	/**
+	 * Copy the counts of a word type for every topic into counts[0] ...
+	 * counts[numTopics - 1]
+	 */
+	public abstract void getWord(int word, int[] counts);
+
+	/**
+	 * Copy the counts of a topic for every word type into counts[0] ...
+	 * counts[vocabularySize - 1]
+	 */
+	public abstract void getTopic(int topic, int[] counts);
+
+	/**
+	 * Overwrite all counts with those of other, which must have been created
+	 * with the same storage, number of topics and word frequencies
+	 */
+	public abstract void copyFrom(TopicWordCounts other);
+}
@@ -0,0 +1,69 @@
+package utility;
+
+import java.util.Arrays;
+
+/**
+ * jLDADMM: A Java package for the LDA and DMM topic models
+ *
+ * The documents of a corpus as bags of words: every document is stored as its
+ * distinct word types, in order of first occurrence, with the number of times
+ * each occurs in it. Scoring a document against a topic then reads the counts
+ * of the topic once per word type rather than once per word.
+ */
+
+public class WordBags
+{
+	// Distinct word types of every document, stored flat: those of document d
+	// are words[offsets[d]] ... words[offsets[d + 1] - 1]
+	public final int[] offsets;
+	public final int[] words;
+	// Number of times every word type occurs in its document
+	public final int[] counts;
+	// Number of words in every document
+	public final int[] lengths;
+
+	public WordBags(Corpus corpus)
+	{
+		this(corpus.tokens, corpus.docOffsets, corpus.numDocuments,
+			corpus.vocabularySize);
+	}
+
+	/**
+	 * Bags of the documents of word IDs below vocabularySize stored flat: the
+	 * words of document d are tokens[docOffsets[d]] ... tokens[docOffsets[d +
+	 * 1] - 1]
+	 */
+	public WordBags(int[] tokens, int[] docOffsets, int numDocuments,
+		int vocabularySize)
+	{
+		// Position of every word type in the bag of the current document,
+		// valid if lastDoc holds the document
+		int[] position = new int[vocabularySize];
+		int[] lastDoc = new int[vocabularySize];
+		Arrays.fill(lastDoc, -1);
+
+		int[] bagWords = new int[docOffsets[numDocuments]];
+		int[] bagCounts = new int[docOffsets[numDocuments]];
+		offsets = new int[numDocuments + 1];
+		lengths = new int[numDocuments];
+		int size = 0;
+		for (int dIndex = 0; dIndex < numDocuments; dIndex++) {
+			offsets[dIndex] = size;
+			lengths[dIndex] = docOffsets[dIndex + 1] - docOffsets[dIndex];
+			for (int wIndex = docOffsets[dIndex]; wIndex < docOffsets[dIndex + 1]; wIndex++) {
+				int word = tokens[wIndex];
+				if (lastDoc[word] != dIndex) {
+					lastDoc[word] = dIndex;
+					position[word] = size;
+					bagWords[size] = word;
+					bagCounts[size] = 0;
+					size++;
+				}
+				bagCounts[position[word]]++;
+			}
+		}
+		offsets[numDocuments] = size;
+		words = Arrays.copyOf(bagWords, size);
+		counts = Arrays.copyOf(bagCounts, size);
+	}
+}
@@ -0,0 +1,49 @@
+package utility;
+
+/**
+ * jLDADMM: A Java package for the LDA and DMM topic models
+ *
+ * Topic-word counts stored as a dense vocabularySize * numTopics matrix, one
+ * row per word type, so that the counts of a word for all topics, which the
+ * dense sampler reads for every word of the corpus, are contiguous in memory.
+ */
+
+public class WordMajorTopicWordCounts
+	extends TopicWordCounts
+{
+	private int[][] counts;
+
+	public WordMajorTopicWordCounts(int numTopics, int vocabularySize)
+	{
+		super(numTopics, vocabularySize);
+		counts = new int[vocabularySize][numTopics];
+	}
+
+	public int get(int topic, int word)
+	{
+		return counts[word][topic];
+	}
+
+	public void add(int topic, int word, int delta)
+	{
+		counts[word][topic] += delta;
+	}
+
+	public void getWord(int word, int[] wordCounts)
+	{
+		System.arraycopy(counts[word], 0, wordCounts, 0, numTopics);
+	}
+
+	public void getTopic(int topic, int[] topicCounts)
+	{
+		for (int wIndex = 0; wIndex < vocabularySize; wIndex++)
+			topicCounts[wIndex] = counts[wIndex][topic];
+	}
+
+	public void copyFrom(TopicWordCounts other)
+	{
+		int[][] otherCounts = ((WordMajorTopicWordCounts) other).counts;
+		for (int i = 0; i < counts.length; i++)
+			System.arraycopy(otherCounts[i], 0, counts[i], 0, counts[i].length);
+	}
+}
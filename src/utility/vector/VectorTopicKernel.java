@@ -0,0 +1,132 @@
+package utility.vector;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+import utility.FuncUtils;
+import utility.TopicKernel;
+
+/**
+ * jLDADMM: A Java package for the LDA and DMM topic models
+ *
+ * Topic kernel using the Java Vector API, which compiles to the widest SIMD
+ * instructions of the CPU (e.g. AVX-512). Topics are scored a vector at a
+ * time, and the cumulative probabilities are computed with an in-register
+ * prefix sum.
+ *
+ * This class is compiled separately with "--add-modules
+ * jdk.incubator.vector", and only loaded through {@link TopicKernel#create(
+ * String, int, utility.RandomStream, java.io.PrintStream)}.
+ */
+
+public class VectorTopicKernel
+	extends TopicKernel
+{
+	private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+	// Ints with as many lanes as DOUBLES
+	private static final VectorSpecies<Integer> DOUBLE_INTS = VectorSpecies.of(
+		int.class, VectorShape.forBitSize(DOUBLES.length() * Integer.SIZE));
+	private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+	// Ints with as many lanes as FLOATS
+	private static final VectorSpecies<Integer> FLOAT_INTS = VectorSpecies.of(
+		int.class, FLOATS.vectorShape());
+
+	private boolean singlePrecision;
+
+	private double[] inverseDenominators;
+	private double[] cumulative;
+	private float[] inverseDenominators32;
+	private float[] cumulative32;
+
+	public VectorTopicKernel(int numTopics, boolean singlePrecision)
+	{
+		super(numTopics);
+		this.singlePrecision = singlePrecision;
+		if (singlePrecision) {
+			inverseDenominators32 = new float[numTopics];
+			cumulative32 = new float[numTopics];
+		}
+		else {
+			inverseDenominators = new double[numTopics];
+			cumulative = new double[numTopics];
+		}
+	}
+
+	public void setDenominator(int topic, double denominator)
+	{
+		if (singlePrecision)
+			inverseDenominators32[topic] = (float) (1.0 / denominator);
+		else
+			inverseDenominators[topic] = 1.0 / denominator;
+	}
+
+	public int sampleLDA(int[] docCounts, int[] wordCounts, double alpha,
+		double beta)
+	{
+		if (singlePrecision)
+			return sampleLDA32(docCounts, wordCounts, (float) alpha,
+				(float) beta);
+
+		int lanes = DOUBLES.length();
+		int bound = DOUBLES.loopBound(numTopics);
+		DoubleVector zero = DoubleVector.zero(DOUBLES);
+		double sum = 0.0;
+		int tIndex = 0;
+		for (; tIndex < bound; tIndex += lanes) {
+			DoubleVector docs = (DoubleVector) IntVector
+				.fromArray(DOUBLE_INTS, docCounts, tIndex)
+				.convertShape(VectorOperators.I2D, DOUBLES, 0);
+			DoubleVector words = (DoubleVector) IntVector
+				.fromArray(DOUBLE_INTS, wordCounts, tIndex)
+				.convertShape(VectorOperators.I2D, DOUBLES, 0);
+			DoubleVector pros = docs.add(alpha).mul(words.add(beta))
+				.mul(DoubleVector.fromArray(DOUBLES, inverseDenominators, tIndex));
+			// Prefix sum within the vector, in log2(lanes) shifted additions
+			for (int shift = 1; shift < lanes; shift <<= 1)
+				pros = pros.add(zero.slice(lanes - shift, pros));
+			pros = pros.add(sum);
+			pros.intoArray(cumulative, tIndex);
+			sum = pros.lane(lanes - 1);
+		}
+		for (; tIndex < numTopics; tIndex++) {
+			sum += (docCounts[tIndex] + alpha) * (wordCounts[tIndex] + beta)
+				* inverseDenominators[tIndex];
+			cumulative[tIndex] = sum;
+		}
+		return FuncUtils.nextDiscreteCumulative(cumulative, random);
+	}
+
+	private int sampleLDA32(int[] docCounts, int[] wordCounts, float alpha,
+		float beta)
+	{
+		int lanes = FLOATS.length();
+		int bound = FLOATS.loopBound(numTopics);
+		FloatVector zero = FloatVector.zero(FLOATS);
+		float sum = 0.0f;
+		int tIndex = 0;
+		for (; tIndex < bound; tIndex += lanes) {
+			FloatVector docs = (FloatVector) IntVector
+				.fromArray(FLOAT_INTS, docCounts, tIndex)
+				.convert(VectorOperators.I2F, 0);
+			FloatVector words = (FloatVector) IntVector
+				.fromArray(FLOAT_INTS, wordCounts, tIndex)
+				.convert(VectorOperators.I2F, 0);
+			FloatVector pros = docs.add(alpha).mul(words.add(beta))
+				.mul(FloatVector.fromArray(FLOATS, inverseDenominators32, tIndex));
+			for (int shift = 1; shift < lanes; shift <<= 1)
+				pros = pros.add(zero.slice(lanes - shift, pros));
+			pros = pros.add(sum);
+			pros.intoArray(cumulative32, tIndex);
+			sum = pros.lane(lanes - 1);
+		}
+		for (; tIndex < numTopics; tIndex++) {
+			sum += (docCounts[tIndex] + alpha) * (wordCounts[tIndex] + beta)
+				* inverseDenominators32[tIndex];
+			cumulative32[tIndex] = sum;
+		}
+		return nextDiscreteCumulative(cumulative32, numTopics);
+	}
+}